@@ -7,13 +7,13 @@ import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbEndpoint;
 import android.hardware.usb.UsbInterface;
 import android.hardware.usb.UsbManager;
+import android.hardware.usb.UsbRequest;
+import android.os.SystemClock;
 import android.util.Log;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 
 public class AirSpeedSensor extends Thread {
     private static final String TAG = "AirSpeedSensor";
@@ -25,15 +25,46 @@ public class AirSpeedSensor extends Thread {
     UsbDevice device = null;
     UsbDeviceConnection connection;
     UsbEndpoint rx = null;
-    int outputType = TYPE_A;
-    float pressureRange = 1.0f;
+    volatile AirspeedCalibration calibration = new AirspeedCalibration();
+    volatile AirspeedCalibration.ZeroCapture zeroCapture = null;
+    ZeroListener zeroListener = null;
 
-    public static final int TYPE_A = 0;
-    public static final int TYPE_B = 1;
+    public static final int TYPE_A = AirspeedCalibration.TYPE_A;
+    public static final int TYPE_B = AirspeedCalibration.TYPE_B;
+
+    /**
+     * Each read asks for this many max-size packets, so that one transfer
+     * can return every frame the sensor sent since the previous one
+     */
+    static final int PACKETS_PER_TRANSFER = 16;
+    static final int MAX_TRANSFER_SIZE = 16384;
+    static final int REQUEST_COUNT = 4;
+
+    /**
+     * Longest wait of a new reader thread for the previous one on the same
+     * device to close it; a blocking bulk transfer returns within its 1000 ms
+     * timeout, the teardown takes up to one more control transfer
+     */
+    static final long STOP_TIMEOUT_MS = 2500;
+
+    boolean queuedTransfers = true;
+    volatile boolean raw = false;
+    volatile UsbRequest[] requests = null;
+    final Object requestLock = new Object();
+    LineCoding requestedCoding = null;
+    volatile LineCoding lineCoding = null;
+    volatile long transfers = 0;
+    volatile long bytesReceived = 0;
+    volatile long firstReceived = 0;
+    volatile long lastReceived = 0;
+    long characterTime = 0;
+    int receivedLength = 0;
 
     SerialInputStream inStream = new SerialInputStream();
-    byte[] temp = new byte[1024];
-    boolean recording = false;
+    AirspeedFrameParser parser = new AirspeedFrameParser(new FrameConverter());
+    byte[] temp = new byte[MAX_TRANSFER_SIZE];
+    volatile boolean recording = false;
+    AirSpeedSensor previous = null;
 
     byte[] rx_buffer = new byte[1024];
 
@@ -57,8 +88,33 @@ public class AirSpeedSensor extends Thread {
     };
 
     public interface AirSpeedListener {
-        void onSpeedReading(int stat, float diff, float temp);
+        /**
+         * @param time when the frame was received, on the elapsed realtime clock
+         * @param count raw pressure count that diff was converted from
+         */
+        void onSpeedReading(long time, int stat, int count, float diff, float temp);
+
+        /**
+         * Called instead of onSpeedReading() in raw mode
+         *
+         * @param word the frame as sent, see AirspeedFrameParser.getWord()
+         */
+        void onRawReading(long time, int word);
+
         void onDisconnect();
+
+        /**
+         * Called on the USB thread when the device cannot be used as a sensor at all,
+         * e.g. it has no input endpoint; reopening it will not help
+         */
+        void onStartFailure();
+    }
+
+    public interface ZeroListener {
+        /**
+         * Called on the USB thread with the calibration that is now in use
+         */
+        void onZero(AirspeedCalibration calibration);
     }
 
     public class SerialInputStream extends InputStream {
@@ -110,9 +166,24 @@ public class AirSpeedSensor extends Thread {
 
     @Override
     public void run() {
-        int baudRate = 9600;
-        int requestType = UsbConstants.USB_TYPE_CLASS | 1;
-
+        if (previous != null) {
+            try {
+                previous.join(STOP_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (previous.isAlive()) {
+                Log.w(TAG, "previous reader did not stop, opening the device anyway");
+            }
+            previous = null;
+        }
+        if (device.getInterfaceCount() < 2) {
+            Log.e(TAG, "no data interface on " + device.getDeviceName());
+            if (listener != null) {
+                listener.onStartFailure();
+            }
+            return;
+        }
         ifControl = device.getInterface(0);
         ifData = device.getInterface(1);
 
@@ -120,7 +191,7 @@ public class AirSpeedSensor extends Thread {
 
         try {
             connection = manager.openDevice(device);
-        } catch (IllegalArgumentException e) {
+        } catch (IllegalArgumentException | SecurityException e) {
             connection = null;
             Log.e(TAG, "failed to open device", e);
         }
@@ -135,6 +206,18 @@ public class AirSpeedSensor extends Thread {
 
         connection.claimInterface(ifControl, true);
         connection.claimInterface(ifData, true);
+        try {
+            read();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Configures the opened device and reads it until stopped or disconnected
+     */
+    private void read() {
+        int requestType = UsbConstants.USB_TYPE_CLASS | 1;
 
         int n = ifData.getEndpointCount();
         int i;
@@ -146,73 +229,323 @@ public class AirSpeedSensor extends Thread {
             }
         }
 
-        if (rx != null) {
-            rx_buffer[0] = (byte) (baudRate & 0xFF);
-            rx_buffer[1] = (byte) ((baudRate & 0xFF00) >> 8);
-            rx_buffer[2] = (byte) ((baudRate & 0xFF0000) >> 16);
-            rx_buffer[3] = (byte) ((baudRate & 0xFF000000) >> 24);
-            rx_buffer[4] = 0;  /* 1 stop bit */
-            rx_buffer[5] = 0;  /* no parity */
-            rx_buffer[6] = 8;  /* data bits */
-            connection.controlTransfer(requestType, Requests.SET_CONTROL_LINE_STATE, 1, 0, null, 0, 1000);
-            connection.controlTransfer(requestType, Requests.SET_LINE_CODING, 0, 0, rx_buffer, 7, 1000);
+        if (rx == null) {
+            Log.e(TAG, "no input endpoint on " + device.getDeviceName());
+            recording = false;
+            if (listener != null) {
+                listener.onStartFailure();
+            }
+            return;
         }
 
-        BufferedReader reader;
-        try {
-            reader = new BufferedReader(new InputStreamReader(inStream, "UTF-8"), 128);
-        } catch (UnsupportedEncodingException e) {
-            reader = new BufferedReader(new InputStreamReader(inStream), 128);
+        connection.controlTransfer(requestType, Requests.SET_CONTROL_LINE_STATE, 1, 0, null, 0, 1000);
+        LineCoding wanted = requestedCoding;
+        if (wanted == null) {
+            wanted = LineCoding.DEFAULT;
         }
+        lineCoding = negotiate(wanted);
+        characterTime = lineCoding.characterTime();
 
-        while (recording) {
-            if (rx == null) {
-                try {
-                    sleep(40);
-                } catch (InterruptedException e) {
-                    // OK
-                }
-                continue;
-            }
+        if (queuedTransfers) {
+            readQueued();
+            return;
+        }
 
-            String s = null;
+        int size = transferSize();
+        while (recording) {
+            int length;
             try {
-                s = reader.readLine();
+                length = inStream.read(temp, 0, size);
             } catch (IOException e) {
                 listener.onDisconnect();
                 recording = false;
-            }
-            if (s == null) {
                 continue;
             }
 
-            if (s.length() < 9) {
-                continue;
+            if (length > 0) {
+                received(length);
+                parser.parse(temp, 0, length);
             }
-            if (!s.startsWith("*")) {
-                continue;
+        }
+    }
+
+    /**
+     * Called as soon as a transfer completes, before its data is parsed
+     */
+    void received(int length) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        receivedLength = length;
+        if (transfers == 0) {
+            firstReceived = now;
+        }
+        lastReceived = now;
+        transfers += 1;
+        bytesReceived += length;
+    }
+
+    boolean setLineCoding(LineCoding coding) {
+        int requestType = UsbConstants.USB_TYPE_CLASS | 1;
+
+        coding.toBytes(rx_buffer);
+        return connection.controlTransfer(requestType, Requests.SET_LINE_CODING, 0, 0,
+                rx_buffer, LineCoding.SIZE, 1000) >= 0;
+    }
+
+    /**
+     * @return current settings of the device, or null if it does not support GET_LINE_CODING
+     */
+    LineCoding readLineCoding(int timeout) {
+        int requestType = UsbConstants.USB_DIR_IN | UsbConstants.USB_TYPE_CLASS | 1;
+
+        int n = connection.controlTransfer(requestType, Requests.GET_LINE_CODING, 0, 0,
+                rx_buffer, LineCoding.SIZE, timeout);
+        if (n < LineCoding.SIZE) {
+            return null;
+        }
+        try {
+            return LineCoding.fromBytes(rx_buffer);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sets the requested line coding and reads it back. If the device reports
+     * different settings, slower standard rates are tried in turn.
+     *
+     * @return settings in effect
+     */
+    LineCoding negotiate(LineCoding wanted) {
+        LineCoding coding = wanted;
+        int i = 0;
+
+        while (true) {
+            boolean accepted = setLineCoding(coding);
+            LineCoding actual = readLineCoding(1000);
+            if (actual == null) {
+                if (accepted) {
+                    Log.w(TAG, "line coding not verified, assuming " + coding);
+                    return coding;
+                }
+            } else if (actual.equals(coding)) {
+                return coding;
+            }
+
+            while (i < LineCoding.STANDARD_RATES.length
+                    && LineCoding.STANDARD_RATES[i] >= coding.getBaudRate()) {
+                i += 1;
+            }
+            if (i == LineCoding.STANDARD_RATES.length) {
+                Log.e(TAG, "device rejected line coding " + wanted);
+                return actual != null ? actual : wanted;
             }
+            Log.w(TAG, "device rejected " + coding + ", trying "
+                    + LineCoding.STANDARD_RATES[i]);
+            coding = coding.withBaudRate(LineCoding.STANDARD_RATES[i]);
+        }
+    }
 
-            String word = s.substring(1, 5);
-            int diff = Integer.parseInt(word, 16);
-            int stat = ((diff & 0xC000) >> 14);
-            diff &= 0x3FFF;
-            word = s.substring(5, 9);
-            int temp = Integer.parseInt(word, 16);
-            temp >>= 5;
-            float temp_c = ((temp - 511) * 100.0f) / 1024.0f;
+    /**
+     * Largest multiple of the endpoint packet size up to PACKETS_PER_TRANSFER packets
+     */
+    int transferSize() {
+        int packet = 64;
+        if (rx != null && rx.getMaxPacketSize() > 0) {
+            packet = rx.getMaxPacketSize();
+        }
+        return Math.min(packet * PACKETS_PER_TRANSFER, MAX_TRANSFER_SIZE / packet * packet);
+    }
+
+    /**
+     * Keeps REQUEST_COUNT reads queued on the endpoint, so that the host
+     * controller always has a buffer to receive into while a completed one is parsed.
+     *
+     * The thread sleeps in requestWait() until a transfer completes, without a
+     * timeout, so it wakes up once per transfer and never when the line is idle.
+     * sensorStop() cancels the queued requests, which completes them and lets
+     * the thread see that recording has ended.
+     */
+    void readQueued() {
+        int size = transferSize();
+        UsbRequest[] queued = new UsbRequest[REQUEST_COUNT];
+        int i;
 
-            float diff_psi = 0;
-            if (outputType == TYPE_A) {
-                diff_psi = pressureRange * (diff - 8192) / 6554.0f;
+        for (i = 0; i < REQUEST_COUNT; i += 1) {
+            ByteBuffer buffer = ByteBuffer.allocate(size);
+            queued[i] = new UsbRequest();
+            queued[i].initialize(connection, rx);
+            queued[i].setClientData(buffer);
+        }
+        synchronized (requestLock) {
+            requests = queued;
+            for (i = 0; i < REQUEST_COUNT && recording; i += 1) {
+                queued[i].queue((ByteBuffer) queued[i].getClientData());
             }
-            if (outputType == TYPE_B) {
-                diff_psi = pressureRange * (diff - 8191) / 7372.0f;
+        }
+
+        while (recording) {
+            UsbRequest request = connection.requestWait();
+
+            if (request == null) {
+                if (recording) {
+                    listener.onDisconnect();
+                    recording = false;
+                }
+                break;
             }
-            if (recording && listener != null) {
-                listener.onSpeedReading(stat, diff_psi, temp_c);
+            if (!recording) {
+                break;
             }
+
+            ByteBuffer buffer = (ByteBuffer) request.getClientData();
+            int length = buffer.position();
+            if (length > 0) {
+                received(length);
+                parser.parse(buffer.array(), 0, length);
+            }
+            buffer.clear();
+            if (recording && !request.queue(buffer)) {
+                listener.onDisconnect();
+                recording = false;
+            }
+        }
+
+        synchronized (requestLock) {
+            requests = null;
+            for (i = 0; i < REQUEST_COUNT; i += 1) {
+                queued[i].cancel();
+                queued[i].close();
+            }
+        }
+    }
+
+    /**
+     * Time the last character of the current frame was received: the transfer
+     * completed when its last byte came in, earlier frames of the same transfer
+     * were on the line that many character times before
+     */
+    long frameTime() {
+        return lastReceived - (receivedLength - parser.getFrameEnd()) * characterTime;
+    }
+
+    /**
+     * Converts raw counts from the sensor to psi and degrees Celsius
+     */
+    class FrameConverter implements AirspeedFrameParser.FrameListener {
+        @Override
+        public void onFrame(int stat, int diff, int temp) {
+            AirspeedCalibration c = calibration;
+            AirspeedCalibration.ZeroCapture capture = zeroCapture;
+            if (capture != null && capture.add(diff)) {
+                AirspeedCalibration zeroed = capture.apply(c).compile();
+                zeroCapture = null;
+                calibration = zeroed;
+                Log.i(TAG, "zero captured: " + zeroed);
+                if (zeroListener != null) {
+                    zeroListener.onZero(zeroed);
+                }
+            }
+
+            if (!recording || listener == null) {
+                return;
+            }
+            if (raw) {
+                listener.onRawReading(frameTime(), parser.getWord());
+            } else {
+                listener.onSpeedReading(frameTime(), stat, diff, c.psi(diff), c.celsius(temp));
+            }
+        }
+    }
+
+    /**
+     * Number of times malformed serial data had to be skipped
+     */
+    public long getFramingErrors() {
+        return parser.getFramingErrors();
+    }
+
+    /**
+     * Use queued UsbRequest reads (the default) instead of blocking bulk transfers
+     */
+    public void setQueuedTransfers(boolean queued) {
+        queuedTransfers = queued;
+    }
+
+    /**
+     * Pass the frames to onRawReading() unconverted, leaving the calibration
+     * to whoever reads the log
+     */
+    public void setRaw(boolean raw) {
+        this.raw = raw;
+    }
+
+    /**
+     * Number of USB reads that returned data
+     */
+    public long getTransferCount() {
+        return transfers;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public long getFrameCount() {
+        return parser.getFrameCount();
+    }
+
+    /**
+     * Line coding to ask for, null for LineCoding.DEFAULT; takes effect at the next start
+     */
+    public void setRequestedLineCoding(LineCoding coding) {
+        requestedCoding = coding;
+    }
+
+    /**
+     * Settings negotiated with the device, null before the connection is set up
+     */
+    public LineCoding getLineCoding() {
+        return lineCoding;
+    }
+
+    /**
+     * Average number of frames per second received since the first transfer
+     */
+    public double getFrameRate() {
+        long span = lastReceived - firstReceived;
+        if (transfers < 2 || span <= 0) {
+            return 0;
+        }
+        return parser.getFrameCount() * 1e9 / span;
+    }
+
+    /**
+     * Average received data rate in bytes per second
+     */
+    public double getByteRate() {
+        long span = lastReceived - firstReceived;
+        if (transfers < 2 || span <= 0) {
+            return 0;
         }
+        return bytesReceived * 1e9 / span;
+    }
+
+    public void setCalibration(AirspeedCalibration calibration) {
+        this.calibration = calibration;
+    }
+
+    public AirspeedCalibration getCalibration() {
+        return calibration;
+    }
+
+    /**
+     * Averages the pressure of the next frames into a new zero offset; the sensor
+     * must see no airflow meanwhile. The new calibration applies from the frame
+     * after the last one averaged.
+     */
+    public void captureZero(int frames, ZeroListener listener) {
+        zeroListener = listener;
+        zeroCapture = new AirspeedCalibration.ZeroCapture(frames);
     }
 
     public void setListener(AirSpeedListener listener) {
@@ -223,21 +556,52 @@ public class AirSpeedSensor extends Thread {
         this.device = device;
     }
 
+    /**
+     * Compiles the calibration tables and starts reading
+     */
     public void sensorStart() {
+        calibration.compile();
         recording = true;
         start();
     }
 
-    public void sensorStop() {
-        int requestType = UsbConstants.USB_TYPE_CLASS | 1;
+    /**
+     * Reads after the reader thread of previous has finished with the device,
+     * e.g. when reopening it; call before sensorStart()
+     */
+    public void setPrevious(AirSpeedSensor previous) {
+        this.previous = previous;
+    }
 
+    /**
+     * Tells the reader thread to stop and returns without waiting: queued
+     * requests are cancelled, a blocking transfer returns within its timeout.
+     * The thread then closes the connection itself, so that no transfer is left
+     * running on a closed device; a sensor opened next on the same device waits
+     * for that, see setPrevious().
+     */
+    public void sensorStop() {
         recording = false;
-        if (connection == null) {
-            return;
+        synchronized (requestLock) {
+            UsbRequest[] pending = requests;
+            if (pending != null) {
+                int i;
+                for (i = 0; i < pending.length; i += 1) {
+                    pending[i].cancel();
+                }
+            }
         }
+    }
+
+    /**
+     * Drops the control lines and closes the device, on the reader thread
+     */
+    private void close() {
+        int requestType = UsbConstants.USB_TYPE_CLASS | 1;
 
         connection.controlTransfer(requestType, Requests.SET_CONTROL_LINE_STATE, 0, 0, null, 0, 1000);
         connection.releaseInterface(ifData);
         connection.close();
+        connection = null;
     }
 }
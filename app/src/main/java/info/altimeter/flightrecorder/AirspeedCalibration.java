@@ -0,0 +1,217 @@
+package info.altimeter.flightrecorder;
+
+import java.util.Locale;
+
+/**
+ * Conversion of the raw counts of an airspeed sensor to psi and degrees Celsius.
+ *
+ * The differential pressure transfer function of the sensor is one of two output
+ * types: 10% to 90% (TYPE_A) or 5% to 95% (TYPE_B) of the 14-bit range across
+ * -pressureRange..+pressureRange psi. Temperature is 11 bits over -50..150 C.
+ * A zero offset (counts), captured with no airflow, is taken off the pressure.
+ *
+ * compile() turns the profile into lookup tables indexed by the raw counts:
+ * pressure, temperature and indicated airspeed each take one array access per
+ * frame instead of the arithmetic and the square roots of the pitot formula.
+ */
+public class AirspeedCalibration {
+    public static final int TYPE_A = 0;
+    public static final int TYPE_B = 1;
+
+    public static final int PRESSURE_COUNTS = 1 << 14;
+    public static final int TEMPERATURE_COUNTS = 1 << 11;
+
+    final int outputType;
+    final float pressureRange;
+    final float zeroOffset;
+    volatile float[] psiTable = null;
+    volatile float[] celsiusTable = null;
+    volatile float[] iasTable = null;
+
+    public AirspeedCalibration() {
+        this(TYPE_A, 1.0f, 0);
+    }
+
+    public AirspeedCalibration(int outputType, float pressureRange) {
+        this(outputType, pressureRange, 0);
+    }
+
+    /**
+     * @param pressureRange full scale (psi) of the sensor
+     * @param zeroOffset pressure reading (counts) at zero airspeed, relative to mid-scale
+     */
+    public AirspeedCalibration(int outputType, float pressureRange, float zeroOffset) {
+        if (outputType != TYPE_A && outputType != TYPE_B) {
+            throw new IllegalArgumentException("unknown output type " + outputType);
+        }
+        this.outputType = outputType;
+        this.pressureRange = pressureRange;
+        this.zeroOffset = zeroOffset;
+    }
+
+    public int getOutputType() {
+        return outputType;
+    }
+
+    public float getPressureRange() {
+        return pressureRange;
+    }
+
+    public float getZeroOffset() {
+        return zeroOffset;
+    }
+
+    /**
+     * Same profile with another zero offset (counts)
+     */
+    public AirspeedCalibration withZeroOffset(float offset) {
+        return new AirspeedCalibration(outputType, pressureRange, offset);
+    }
+
+    /**
+     * Count of zero differential pressure without offset
+     */
+    int midScale() {
+        return outputType == TYPE_B ? 8191 : 8192;
+    }
+
+    private float span() {
+        return outputType == TYPE_B ? 7372.0f : 6554.0f;
+    }
+
+    /**
+     * Differential pressure (psi) of a 14-bit count, computed
+     */
+    float computePsi(int diff) {
+        return pressureRange * (diff - midScale() - zeroOffset) / span();
+    }
+
+    /**
+     * Temperature (C) of an 11-bit count, computed
+     */
+    float computeCelsius(int temp) {
+        return ((temp - 511) * 100.0f) / 1024.0f;
+    }
+
+    /**
+     * Builds the lookup tables; call before the first frame, later calls do nothing
+     */
+    public synchronized AirspeedCalibration compile() {
+        if (psiTable != null) {
+            return this;
+        }
+        float[] psi = new float[PRESSURE_COUNTS];
+        float[] ias = new float[PRESSURE_COUNTS];
+        float[] celsius = new float[TEMPERATURE_COUNTS];
+        int i;
+
+        for (i = 0; i < PRESSURE_COUNTS; i += 1) {
+            psi[i] = computePsi(i);
+            ias[i] = (float) FlightComputer.indicatedAirspeed(psi[i] * FlightComputer.PA_PER_PSI / 100);
+        }
+        for (i = 0; i < TEMPERATURE_COUNTS; i += 1) {
+            celsius[i] = computeCelsius(i);
+        }
+        celsiusTable = celsius;
+        iasTable = ias;
+        psiTable = psi;
+        return this;
+    }
+
+    /**
+     * Differential pressure (psi) of a 14-bit count
+     */
+    public float psi(int diff) {
+        float[] table = psiTable;
+        if (table != null) {
+            return table[diff & (PRESSURE_COUNTS - 1)];
+        }
+        return computePsi(diff);
+    }
+
+    /**
+     * Temperature (C) of an 11-bit count
+     */
+    public float celsius(int temp) {
+        float[] table = celsiusTable;
+        if (table != null) {
+            return table[temp & (TEMPERATURE_COUNTS - 1)];
+        }
+        return computeCelsius(temp);
+    }
+
+    /**
+     * Indicated airspeed (m/s) of a 14-bit count, 0 below the zero
+     */
+    public float ias(int diff) {
+        float[] table = iasTable;
+        if (table != null) {
+            return table[diff & (PRESSURE_COUNTS - 1)];
+        }
+        return (float) FlightComputer.indicatedAirspeed(computePsi(diff) * FlightComputer.PA_PER_PSI / 100);
+    }
+
+    /**
+     * Averages raw pressure counts taken with no airflow into a zero offset
+     */
+    public static class ZeroCapture {
+        final int frames;
+        long sum = 0;
+        int count = 0;
+
+        public ZeroCapture(int frames) {
+            this.frames = frames;
+        }
+
+        /**
+         * @return true once enough frames have been added
+         */
+        public boolean add(int diff) {
+            if (count < frames) {
+                sum += diff;
+                count += 1;
+            }
+            return count >= frames;
+        }
+
+        public boolean isDone() {
+            return count >= frames;
+        }
+
+        /**
+         * Profile with the measured zero offset
+         */
+        public AirspeedCalibration apply(AirspeedCalibration calibration) {
+            float mean = (float) sum / count;
+            return calibration.withZeroOffset(mean - calibration.midScale());
+        }
+    }
+
+    /**
+     * "A 1.0 0.00": output type, pressure range (psi), zero offset (counts)
+     */
+    public String format() {
+        return String.format(Locale.US, "%s %s %.2f", outputType == TYPE_B ? "B" : "A",
+                Float.toString(pressureRange), zeroOffset);
+    }
+
+    /**
+     * Reads format() output
+     *
+     * @throws IllegalArgumentException if the text is not a profile
+     */
+    public static AirspeedCalibration parse(String text) {
+        String[] parts = text.trim().split("\\s+");
+        if (parts.length != 3 || !(parts[0].equals("A") || parts[0].equals("B"))) {
+            throw new IllegalArgumentException("bad calibration \"" + text + "\"");
+        }
+        return new AirspeedCalibration(parts[0].equals("B") ? TYPE_B : TYPE_A,
+                Float.parseFloat(parts[1]), Float.parseFloat(parts[2]));
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s %s psi, zero %+.1f", outputType == TYPE_A ? "A" : "B",
+                Float.toString(pressureRange), zeroOffset);
+    }
+}
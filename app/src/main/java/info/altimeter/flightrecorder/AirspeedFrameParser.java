@@ -0,0 +1,155 @@
+package info.altimeter.flightrecorder;
+
+/**
+ * Byte-level parser for the airspeed sensor output.
+ *
+ * Each reading is sent as a line "*DDDDTTTT", eight hex digits followed by
+ * CR, LF or CR LF. The first 16-bit word holds two status bits and the
+ * 14-bit differential pressure count, the second one the 11-bit temperature
+ * count in its upper bits.
+ *
+ * Frames may be split across any number of parse() calls. Anything that does
+ * not fit the pattern is skipped until the next '*' or line end and counted as
+ * one framing error.
+ */
+public class AirspeedFrameParser {
+    private static final int IDLE = -1;
+    private static final int DIGITS = 8;
+
+    /**
+     * Characters per frame on the line: '*', eight digits, CR LF
+     */
+    public static final int FRAME_SIZE = 11;
+
+    public interface FrameListener {
+        void onFrame(int stat, int diff, int temp);
+    }
+
+    FrameListener listener;
+    int state = IDLE;
+    int word = 0;
+    boolean skipping = false;
+    long frames = 0;
+    long framingErrors = 0;
+    int frameEnd = 0;
+
+    public AirspeedFrameParser(FrameListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the value of a hex digit, or -1
+     */
+    private static int hex(int c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+
+    private void error() {
+        if (!skipping) {
+            framingErrors += 1;
+            skipping = true;
+        }
+        state = IDLE;
+    }
+
+    /**
+     * Feeds received bytes to the parser
+     *
+     * @return number of complete frames found
+     */
+    public int parse(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int found = 0;
+        int i;
+
+        for (i = offset; i < end; i += 1) {
+            int c = data[i] & 0xFF;
+
+            if (c == '*') {
+                if (state != IDLE) {
+                    error();
+                }
+                state = 0;
+                word = 0;
+                skipping = false;
+                continue;
+            }
+
+            if (state == IDLE) {
+                if (c == '\r' || c == '\n') {
+                    skipping = false;
+                } else {
+                    error();
+                }
+                continue;
+            }
+
+            if (state < DIGITS) {
+                int digit = hex(c);
+                if (digit < 0) {
+                    error();
+                    continue;
+                }
+                word = (word << 4) | digit;
+                state += 1;
+                continue;
+            }
+
+            if (c == '\r' || c == '\n') {
+                state = IDLE;
+                frames += 1;
+                found += 1;
+                frameEnd = i + 1;
+                listener.onFrame(word >>> 30, (word >>> 16) & 0x3FFF, (word & 0xFFFF) >> 5);
+            } else {
+                error();
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Discards a partially received frame, e.g. after a reconnect
+     */
+    public void reset() {
+        state = IDLE;
+        skipping = false;
+    }
+
+    /**
+     * Offset just after the line end of the frame being reported, in the data
+     * passed to parse(); valid inside onFrame()
+     */
+    public int getFrameEnd() {
+        return frameEnd;
+    }
+
+    /**
+     * The packed 32-bit frame being reported, as sent by the sensor; valid
+     * inside onFrame()
+     */
+    public int getWord() {
+        return word;
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    /**
+     * Number of times the parser had to skip malformed input
+     */
+    public long getFramingErrors() {
+        return framingErrors;
+    }
+}
@@ -0,0 +1,453 @@
+package info.altimeter.flightrecorder;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Readings of the USB airspeed sensor, stamped with the time they were
+ * received from USB rather than the time they were parsed.
+ *
+ * The source supervises the USB link: when the system reports the device
+ * detached or the sensor stops responding, a gap marker sample
+ * (LogLayout.AIRSPEED_GAP, NaN values) goes into the log and the device is
+ * reopened with exponential backoff, immediately when the system reports it
+ * attached again. Permission to use a replugged device is asked for again if
+ * it was lost. A reopened device goes through line coding negotiation and
+ * its readings continue in the same log channel.
+ *
+ * In raw mode the source delivers LogLayout.AIRSPEED_RAW samples, the frames
+ * as sent, and leaves the conversion to RawAirspeedConverter.
+ */
+public class AirspeedSource implements SensorSource, AirSpeedSensor.AirSpeedListener {
+    private static final String TAG = "AirspeedSource";
+
+    static final long RECONNECT_MIN_DELAY_MS = 250;
+    static final long RECONNECT_MAX_DELAY_MS = 8000;
+
+    private static final String ACTION_USB_PERMISSION =
+            BuildConfig.APPLICATION_ID + ".AIRSPEED_PERMISSION";
+
+    final Context context;
+    final long[] sample = new long[LogLayout.AIRSPEED_COUNT + 1];
+    final long[] rawSample = new long[LogLayout.AIRSPEED_RAW.getFieldCount()];
+    final Handler handler = new Handler(Looper.getMainLooper());
+    UsbDevice device;
+    LineCoding lineCoding = null;
+    volatile AirspeedCalibration calibration = new AirspeedCalibration();
+    Runnable disconnectListener = null;
+    volatile AirSpeedSensor sensor = null;
+    boolean raw = false;
+    SampleListener listener;
+    volatile boolean running = false;
+    boolean receiverRegistered = false;
+
+    /*
+     * Gap state; samples are passed on with the source locked, the gap marker
+     * may come from the main thread while a detached sensor is still reading
+     */
+    volatile boolean inGap = false;
+    long lastFrame = 0;
+    long gapDetected = 0;
+
+    /*
+     * Reconnect state, main thread only
+     */
+    int attempts = 0;
+    long delay = RECONNECT_MIN_DELAY_MS;
+    boolean permissionPending = false;
+
+    volatile long gaps = 0;
+    volatile long gapTotal = 0;
+    volatile long gapMax = 0;
+    volatile long reconnects = 0;
+    volatile long reconnectTime = 0;
+
+    public AirspeedSource(Context context, UsbDevice device) {
+        this.context = context;
+        this.device = device;
+    }
+
+    /**
+     * Serial settings, null for LineCoding.DEFAULT
+     */
+    public void setLineCoding(LineCoding coding) {
+        lineCoding = coding;
+    }
+
+    /**
+     * Conversion of the sensor counts; takes effect at the next start
+     */
+    public void setCalibration(AirspeedCalibration calibration) {
+        this.calibration = calibration;
+    }
+
+    public AirspeedCalibration getCalibration() {
+        return calibration;
+    }
+
+    /**
+     * Deliver raw frames (LogLayout.AIRSPEED_RAW); call before start
+     */
+    public void setRaw(boolean raw) {
+        this.raw = raw;
+    }
+
+    public boolean isRaw() {
+        return raw;
+    }
+
+    /**
+     * Measures the zero offset over the next frames, see AirSpeedSensor.captureZero();
+     * the result is kept for reconnects and passed to the listener
+     *
+     * @return false if the sensor is not running
+     */
+    public boolean captureZero(int frames, final AirSpeedSensor.ZeroListener listener) {
+        AirSpeedSensor s = sensor;
+        if (!running || s == null) {
+            return false;
+        }
+        s.captureZero(frames, new AirSpeedSensor.ZeroListener() {
+            @Override
+            public void onZero(AirspeedCalibration c) {
+                calibration = c;
+                if (listener != null) {
+                    listener.onZero(c);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Identifies a sensor across reconnects: vendor, product and serial number if readable
+     */
+    public static String deviceKey(UsbDevice device) {
+        String serial = null;
+        try {
+            serial = device.getSerialNumber();
+        } catch (SecurityException e) {
+            // No permission to read the serial number yet
+        }
+        return String.format(Locale.US, "%04x:%04x:%s", device.getVendorId(), device.getProductId(),
+                serial == null ? "" : serial);
+    }
+
+    public UsbDevice getDevice() {
+        return device;
+    }
+
+    /**
+     * Called when a gap starts: on the USB thread when the sensor stops
+     * responding, on the main thread when the device is detached
+     */
+    public void setDisconnectListener(Runnable listener) {
+        disconnectListener = listener;
+    }
+
+    @Override
+    public LogLayout getLayout() {
+        return raw ? LogLayout.AIRSPEED_RAW : LogLayout.AIRSPEED;
+    }
+
+    /**
+     * Call on the main thread
+     */
+    @Override
+    public boolean start(SampleListener listener) {
+        if (device == null) {
+            return false;
+        }
+        this.listener = listener;
+        running = true;
+        IntentFilter filter = new IntentFilter(UsbManager.ACTION_USB_DEVICE_ATTACHED);
+        filter.addAction(UsbManager.ACTION_USB_DEVICE_DETACHED);
+        filter.addAction(ACTION_USB_PERMISSION);
+        context.registerReceiver(usbReceiver, filter);
+        receiverRegistered = true;
+        open();
+        return true;
+    }
+
+    /**
+     * Call on the main thread
+     */
+    @Override
+    public void stop() {
+        synchronized (this) {
+            /*
+             * The reader threads finish on their own; nothing is passed on after this
+             */
+            running = false;
+        }
+        handler.removeCallbacks(reconnect);
+        if (receiverRegistered) {
+            context.unregisterReceiver(usbReceiver);
+            receiverRegistered = false;
+        }
+        AirSpeedSensor s = sensor;
+        if (s != null) {
+            s.sensorStop();
+        }
+    }
+
+    private void open() {
+        AirSpeedSensor s = new AirSpeedSensor(context);
+        s.setPrevious(sensor);
+        s.setListener(this);
+        s.setDevice(device);
+        s.setRequestedLineCoding(lineCoding);
+        s.setCalibration(calibration);
+        s.setRaw(raw);
+        sensor = s;
+        s.sensorStart();
+    }
+
+    final Runnable reconnect = new Runnable() {
+        @Override
+        public void run() {
+            if (!running) {
+                return;
+            }
+            AirSpeedSensor old = sensor;
+            if (old != null) {
+                old.sensorStop();
+            }
+            UsbManager manager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
+            if (!manager.hasPermission(device)) {
+                /*
+                 * Usually lost when the device was unplugged; the permission
+                 * broadcast resumes the reconnects
+                 */
+                if (!permissionPending) {
+                    permissionPending = true;
+                    Log.w(TAG, "no permission for " + device.getDeviceName() + ", asking the user");
+                    manager.requestPermission(device, PendingIntent.getBroadcast(context, 0,
+                            new Intent(ACTION_USB_PERMISSION), 0));
+                }
+                return;
+            }
+            attempts += 1;
+            Log.i(TAG, String.format(Locale.US, "reconnecting %s, attempt %d",
+                    device.getDeviceName(), attempts));
+            open();
+        }
+    };
+
+    /**
+     * Schedules the next attempt, doubling the delay up to RECONNECT_MAX_DELAY_MS
+     */
+    private void scheduleReconnect() {
+        if (!running) {
+            return;
+        }
+        handler.removeCallbacks(reconnect);
+        handler.postDelayed(reconnect, delay);
+        delay = Math.min(delay * 2, RECONNECT_MAX_DELAY_MS);
+    }
+
+    /**
+     * A device with the same vendor, product and (if readable) serial number
+     */
+    boolean sameDevice(UsbDevice other) {
+        if (other == null || other.getVendorId() != device.getVendorId()
+                || other.getProductId() != device.getProductId()) {
+            return false;
+        }
+        try {
+            String serial = device.getSerialNumber();
+            String otherSerial = other.getSerialNumber();
+            if (serial != null && otherSerial != null) {
+                return serial.equals(otherSerial);
+            }
+        } catch (SecurityException e) {
+            // No permission to read the serial number yet
+        }
+        return true;
+    }
+
+    final BroadcastReceiver usbReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            UsbDevice other = intent.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+            String action = intent.getAction();
+            if (!running || !sameDevice(other)) {
+                return;
+            }
+            if (UsbManager.ACTION_USB_DEVICE_DETACHED.equals(action)) {
+                Log.w(TAG, device.getDeviceName() + " detached");
+                startGap();
+                return;
+            }
+            if (ACTION_USB_PERMISSION.equals(action)) {
+                permissionPending = false;
+                if (!intent.getBooleanExtra(UsbManager.EXTRA_PERMISSION_GRANTED, false)) {
+                    Log.e(TAG, "permission denied for " + other.getDeviceName()
+                            + ", waiting for the device to be plugged in again");
+                    handler.removeCallbacks(reconnect);
+                    return;
+                }
+            } else if (!inGap) {
+                return;
+            }
+            device = other;
+            delay = RECONNECT_MIN_DELAY_MS;
+            handler.removeCallbacks(reconnect);
+            handler.post(reconnect);
+        }
+    };
+
+    /**
+     * The running sensor, or the last one used; null before start
+     */
+    public AirSpeedSensor getSensor() {
+        return sensor;
+    }
+
+    /**
+     * Gap and reconnect accounting for a reading received at the given time
+     *
+     * @return false after stop(), or for a reading of a detached sensor received
+     *         before the gap marker
+     */
+    private boolean onReading(long time) {
+        if (!running || (inGap && time <= gapDetected)) {
+            return false;
+        }
+        if (inGap) {
+            long gap = time - lastFrame;
+            gaps += 1;
+            gapTotal += gap;
+            gapMax = Math.max(gapMax, gap);
+            reconnectTime = SystemClock.elapsedRealtimeNanos() - gapDetected;
+            reconnects += 1;
+            inGap = false;
+            Log.i(TAG, String.format(Locale.US, "%s resumed after %.3f s gap, reconnected in %.3f s",
+                    device.getDeviceName(), gap / 1e9, reconnectTime / 1e9));
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    attempts = 0;
+                    delay = RECONNECT_MIN_DELAY_MS;
+                }
+            });
+        }
+        lastFrame = time;
+        return true;
+    }
+
+    @Override
+    public synchronized void onSpeedReading(long time, int stat, int count, float diff, float temp_c) {
+        if (!onReading(time)) {
+            return;
+        }
+        sample[0] = stat;
+        sample[1] = LogLayout.real(diff);
+        sample[2] = LogLayout.real(temp_c);
+        sample[LogLayout.AIRSPEED_COUNT] = count;
+        listener.onSample(time, sample);
+    }
+
+    @Override
+    public synchronized void onRawReading(long time, int word) {
+        if (!onReading(time)) {
+            return;
+        }
+        rawSample[0] = RawAirspeedConverter.sample(word);
+        listener.onSample(time, rawSample);
+    }
+
+    @Override
+    public void onDisconnect() {
+        if (!running) {
+            return;
+        }
+        startGap();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                scheduleReconnect();
+            }
+        });
+    }
+
+    @Override
+    public void onStartFailure() {
+        Log.e(TAG, device.getDeviceName() + " cannot be used as an airspeed sensor, not reconnecting");
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                stop();
+            }
+        });
+    }
+
+    /**
+     * Writes the gap marker unless a gap has already started
+     */
+    synchronized void startGap() {
+        if (!running) {
+            return;
+        }
+        if (!inGap) {
+            gapDetected = SystemClock.elapsedRealtimeNanos();
+            if (lastFrame == 0) {
+                lastFrame = gapDetected;
+            }
+            if (raw) {
+                rawSample[0] = LogLayout.AIRSPEED_GAP;
+                listener.onSample(gapDetected, rawSample);
+            } else {
+                sample[0] = LogLayout.AIRSPEED_GAP;
+                sample[1] = LogLayout.real(Double.NaN);
+                sample[2] = LogLayout.real(Double.NaN);
+                sample[LogLayout.AIRSPEED_COUNT] = -1;
+                listener.onSample(gapDetected, sample);
+            }
+            inGap = true;
+            if (disconnectListener != null) {
+                disconnectListener.run();
+            }
+        }
+    }
+
+    /**
+     * Gaps that have ended with readings from a reopened device
+     */
+    public long getGapCount() {
+        return gaps;
+    }
+
+    /**
+     * Total and longest time (ns) between the last reading before a gap and the first after it
+     */
+    public long getGapTotal() {
+        return gapTotal;
+    }
+
+    public long getGapMax() {
+        return gapMax;
+    }
+
+    public long getReconnectCount() {
+        return reconnects;
+    }
+
+    /**
+     * Time (ns) from detecting the last disconnect to the first reading after it
+     */
+    public long getReconnectTime() {
+        return reconnectTime;
+    }
+}
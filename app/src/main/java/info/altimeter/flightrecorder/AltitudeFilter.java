@@ -0,0 +1,263 @@
+package info.altimeter.flightrecorder;
+
+/**
+ * Kalman filter that fuses barometric and GNSS altitude, and smooths ground speed.
+ *
+ * The vertical state is altitude h, climb rate v and barometer bias b, with
+ * constant climb rate plus white acceleration noise as the motion model and a
+ * slowly wandering bias. A barometer reading measures h + b, a GNSS fix measures
+ * h with its reported vertical accuracy as standard deviation. The bias takes up
+ * both the weather (pressure altitude is referenced to 1013.25 hPa) and the
+ * datum of the GNSS altitude, so h follows the GNSS reference with the
+ * short-term resolution of the barometer.
+ *
+ * Ground speed has its own two-state filter (speed and its rate of change),
+ * updated with the GNSS speed and its accuracy.
+ *
+ * Measurements are scalar, so an update needs no matrix inversion; all state
+ * lives in fixed arrays and a step does not allocate.
+ */
+public class AltitudeFilter {
+    static final int N = 3;
+    static final int H = 0;
+    static final int V = 1;
+    static final int B = 2;
+
+    /**
+     * Standard deviations of the model and the barometer; acceleration in m/s2,
+     * bias drift in m/sqrt(s), barometer noise in m
+     */
+    double accelerationNoise = 1.0;
+    double biasDrift = 0.05;
+    double baroNoise = 0.5;
+    double speedChangeNoise = 1.0;
+
+    final double[] x = new double[N];
+    final double[] p = new double[N * N];
+    final double[] ph = new double[N];
+    final double[] gain = new double[N];
+    final double[] speed = new double[2];
+    final double[] speedP = new double[4];
+    long time = 0;
+    long speedTime = 0;
+    boolean initialized = false;
+    boolean speedInitialized = false;
+    long baroUpdates = 0;
+    long gnssUpdates = 0;
+
+    public void setNoise(double acceleration, double biasDrift, double baro) {
+        accelerationNoise = acceleration;
+        this.biasDrift = biasDrift;
+        baroNoise = baro;
+    }
+
+    private void init(long time, double altitude, double variance) {
+        int i;
+
+        for (i = 0; i < N * N; i += 1) {
+            p[i] = 0;
+        }
+        x[H] = altitude;
+        x[V] = 0;
+        x[B] = 0;
+        p[H * N + H] = variance;
+        p[V * N + V] = 25;
+        p[B * N + B] = 10000;
+        this.time = time;
+        initialized = true;
+    }
+
+    /**
+     * Moves the state forward to time (ns); earlier times are ignored
+     */
+    void predict(long t) {
+        if (t <= time) {
+            return;
+        }
+        double dt = (t - time) / 1e9;
+        double q = accelerationNoise * accelerationNoise;
+        int i;
+
+        /*
+         * P = F P F' + Q with F = [1 dt 0; 0 1 0; 0 0 1]
+         */
+        for (i = 0; i < N; i += 1) {
+            p[H * N + i] += dt * p[V * N + i];
+        }
+        for (i = 0; i < N; i += 1) {
+            p[i * N + H] += dt * p[i * N + V];
+        }
+        p[H * N + H] += q * dt * dt * dt * dt / 4;
+        p[H * N + V] += q * dt * dt * dt / 2;
+        p[V * N + H] += q * dt * dt * dt / 2;
+        p[V * N + V] += q * dt * dt;
+        p[B * N + B] += biasDrift * biasDrift * dt;
+
+        x[H] += x[V] * dt;
+        time = t;
+    }
+
+    private void predictSpeed(long t) {
+        if (t <= speedTime) {
+            return;
+        }
+        double dt = (t - speedTime) / 1e9;
+        double q = speedChangeNoise * speedChangeNoise;
+
+        speedP[0] += dt * (speedP[1] + speedP[2]) + dt * dt * speedP[3] + q * dt * dt * dt * dt / 4;
+        speedP[1] += dt * speedP[3] + q * dt * dt * dt / 2;
+        speedP[2] = speedP[1];
+        speedP[3] += q * dt * dt;
+        speed[0] += speed[1] * dt;
+        speedTime = t;
+    }
+
+    /**
+     * Scalar update with the measurement z = h . x and variance r
+     */
+    private void update(double hH, double hB, double z, double r) {
+        int i;
+        int j;
+
+        for (i = 0; i < N; i += 1) {
+            ph[i] = p[i * N + H] * hH + p[i * N + B] * hB;
+        }
+        double s = hH * ph[H] + hB * ph[B] + r;
+        double y = z - (hH * x[H] + hB * x[B]);
+        for (i = 0; i < N; i += 1) {
+            gain[i] = ph[i] / s;
+            x[i] += gain[i] * y;
+        }
+
+        /*
+         * P -= K (H P), keeping it symmetric
+         */
+        for (i = 0; i < N; i += 1) {
+            for (j = i; j < N; j += 1) {
+                double value = p[i * N + j] - gain[i] * ph[j];
+                p[i * N + j] = value;
+                p[j * N + i] = value;
+            }
+        }
+    }
+
+    /**
+     * Barometric (pressure) altitude in m
+     */
+    public void addBaro(long t, double altitude) {
+        if (!initialized) {
+            init(t, altitude, baroNoise * baroNoise);
+            x[B] = 0;
+            p[H * N + H] = 10000;
+            p[H * N + B] = -10000 + baroNoise * baroNoise / 2;
+            p[B * N + H] = p[H * N + B];
+            baroUpdates += 1;
+            return;
+        }
+        predict(t);
+        update(1, 1, altitude, baroNoise * baroNoise);
+        baroUpdates += 1;
+    }
+
+    /**
+     * GNSS altitude in m with its vertical accuracy (m, one standard deviation).
+     * A fix older than the state is moved forward along the current climb rate.
+     */
+    public void addGnss(long t, double altitude, double accuracy) {
+        if (accuracy <= 0) {
+            return;
+        }
+        if (!initialized) {
+            init(t, altitude, accuracy * accuracy);
+            gnssUpdates += 1;
+            return;
+        }
+        if (t < time) {
+            altitude += x[V] * (time - t) / 1e9;
+        } else {
+            predict(t);
+        }
+        update(1, 0, altitude, accuracy * accuracy);
+        gnssUpdates += 1;
+    }
+
+    /**
+     * GNSS ground speed in m/s with its accuracy (m/s, one standard deviation)
+     */
+    public void addGroundSpeed(long t, double value, double accuracy) {
+        if (accuracy <= 0) {
+            return;
+        }
+        double r = accuracy * accuracy;
+        if (!speedInitialized) {
+            speed[0] = value;
+            speed[1] = 0;
+            speedP[0] = r;
+            speedP[1] = 0;
+            speedP[2] = 0;
+            speedP[3] = 4;
+            speedTime = t;
+            speedInitialized = true;
+            return;
+        }
+        predictSpeed(t);
+        double s = speedP[0] + r;
+        double k0 = speedP[0] / s;
+        double k1 = speedP[2] / s;
+        double y = value - speed[0];
+        speed[0] += k0 * y;
+        speed[1] += k1 * y;
+        double p00 = speedP[0];
+        double p01 = speedP[1];
+        speedP[0] -= k0 * p00;
+        speedP[1] -= k0 * p01;
+        speedP[2] = speedP[1];
+        speedP[3] -= k1 * p01;
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public double getAltitude() {
+        return x[H];
+    }
+
+    public double getClimbRate() {
+        return x[V];
+    }
+
+    /**
+     * Barometric altitude minus true altitude
+     */
+    public double getBaroBias() {
+        return x[B];
+    }
+
+    /**
+     * Standard deviation of the altitude estimate
+     */
+    public double getAltitudeError() {
+        return Math.sqrt(p[H * N + H]);
+    }
+
+    public boolean hasGroundSpeed() {
+        return speedInitialized;
+    }
+
+    public double getGroundSpeed() {
+        return speed[0];
+    }
+
+    public long getBaroUpdates() {
+        return baroUpdates;
+    }
+
+    public long getGnssUpdates() {
+        return gnssUpdates;
+    }
+}
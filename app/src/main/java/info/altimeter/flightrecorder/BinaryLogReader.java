@@ -0,0 +1,289 @@
+package info.altimeter.flightrecorder;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Sequential reader for files written by BinaryLogWriter.
+ *
+ * Records are decoded one at a time from a fixed buffer, so files of any size
+ * can be streamed. next() returns the samples of all channels in file order,
+ * next(channel) the samples of a single channel.
+ */
+public class BinaryLogReader implements Closeable {
+    private static final double[] SCALE = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10
+    };
+
+    final InputStream in;
+    final byte[] buffer = new byte[64 * 1024];
+    int position = 0;
+    int limit = 0;
+    long offset = 0;
+
+    int version;
+    long startTime;
+    ChannelState[] states = new ChannelState[8];
+
+    int channel;
+    ChannelState current;
+
+    static class ChannelState {
+        final LogLayout layout;
+        final long[] values;
+        final long[] raw;
+        long lastTime;
+        long lastInterval = 0;
+
+        ChannelState(LogLayout layout, long startTime) {
+            this.layout = layout;
+            values = new long[layout.getFieldCount()];
+            raw = new long[layout.getFieldCount()];
+            lastTime = startTime;
+        }
+    }
+
+    public BinaryLogReader(InputStream in) throws IOException {
+        int i;
+
+        this.in = in;
+        for (i = 0; i < BinaryLogWriter.MAGIC.length; i += 1) {
+            if (readByte() != BinaryLogWriter.MAGIC[i]) {
+                throw new IOException("not a binary flight log");
+            }
+        }
+        version = readByte();
+        if (version != BinaryLogWriter.VERSION) {
+            throw new IOException(String.format("unsupported version %d", version));
+        }
+        startTime = readLong();
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Number of bytes consumed so far
+     */
+    public long getOffset() {
+        return offset + position;
+    }
+
+    private boolean fill() throws IOException {
+        offset += limit;
+        position = 0;
+        limit = 0;
+        while (limit == 0) {
+            int n = in.read(buffer, 0, buffer.length);
+            if (n < 0) {
+                return false;
+            }
+            limit = n;
+        }
+        return true;
+    }
+
+    private int readByte() throws IOException {
+        if (position == limit && !fill()) {
+            throw new EOFException();
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private long readLong() throws IOException {
+        long v = 0;
+        int i;
+
+        for (i = 0; i < 8; i += 1) {
+            v = (v << 8) | readByte();
+        }
+        return v;
+    }
+
+    private long readVarint() throws IOException {
+        long v = 0;
+        int shift = 0;
+        int b;
+
+        do {
+            b = readByte();
+            v |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return v;
+    }
+
+    private long readSignedVarint() throws IOException {
+        long v = readVarint();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Advances to the next sample record
+     *
+     * @return false at the end of the file
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) {
+                return false;
+            }
+
+            long tag = readVarint();
+            int id = (int) (tag >>> 2);
+            int kind = (int) (tag & 3);
+
+            if (kind == BinaryLogWriter.KIND_DEFINE) {
+                LogLayout layout = LogLayout.forCode((int) readVarint());
+                if (layout == null) {
+                    throw new IOException("unknown layout");
+                }
+                if (id >= states.length) {
+                    ChannelState[] larger = new ChannelState[Math.max(id + 1, states.length * 2)];
+                    System.arraycopy(states, 0, larger, 0, states.length);
+                    states = larger;
+                }
+                states[id] = new ChannelState(layout, startTime);
+                continue;
+            }
+
+            if (kind != BinaryLogWriter.KIND_SAMPLE) {
+                throw new IOException(String.format("unsupported record type %d", kind));
+            }
+            if (id >= states.length || states[id] == null) {
+                throw new IOException(String.format("undefined channel %d", id));
+            }
+
+            ChannelState state = states[id];
+            LogLayout layout = state.layout;
+            long interval = state.lastInterval + readSignedVarint();
+            state.lastTime += interval;
+            state.lastInterval = interval;
+
+            int i;
+            for (i = 0; i < layout.count; i += 1) {
+                state.values[i] += readSignedVarint();
+                if (layout.kind[i] == LogLayout.REAL && state.values[i] == LogFormatter.INVALID) {
+                    state.raw[i] = readLong();
+                }
+            }
+
+            channel = id;
+            current = state;
+            return true;
+        }
+    }
+
+    /**
+     * Advances to the next sample of one channel, skipping the others
+     *
+     * @return false at the end of the file
+     */
+    public boolean next(int channel) throws IOException {
+        while (next()) {
+            if (this.channel == channel) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Advances to the next sample of the first channel recorded with the given layout
+     *
+     * @return false at the end of the file
+     */
+    public boolean next(LogLayout layout) throws IOException {
+        while (next()) {
+            if (current.layout == layout && findChannel(layout) == channel) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lowest channel number defined so far with the given layout, or -1
+     */
+    public int findChannel(LogLayout layout) {
+        int i;
+
+        for (i = 0; i < states.length; i += 1) {
+            if (states[i] != null && states[i].layout == layout) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getChannel() {
+        return channel;
+    }
+
+    public LogLayout getLayout() {
+        return current.layout;
+    }
+
+    /**
+     * Sample timestamp (ns, same clock as the start time)
+     */
+    public long getTime() {
+        return current.lastTime;
+    }
+
+    /**
+     * INT field value, or the fixed-point value of a REAL field
+     */
+    public long getField(int i) {
+        return current.values[i];
+    }
+
+    public double getValue(int i) {
+        long v = current.values[i];
+        LogLayout layout = current.layout;
+
+        if (layout.kind[i] == LogLayout.INT) {
+            return v;
+        }
+        if (v == LogFormatter.INVALID) {
+            return Double.longBitsToDouble(current.raw[i]);
+        }
+        if (v < 0) {
+            return -((~v) / SCALE[layout.precision[i]]);
+        }
+        return v / SCALE[layout.precision[i]];
+    }
+
+    /**
+     * Appends the current sample as a line of the text log
+     */
+    public void format(LogFormatter line) {
+        LogLayout layout = current.layout;
+        int i;
+
+        line.appendTime(current.lastTime - startTime);
+        for (i = 0; i < layout.count; i += 1) {
+            if (layout.space[i]) {
+                line.append(' ');
+            }
+            long v = current.values[i];
+            if (layout.kind[i] == LogLayout.INT) {
+                line.appendInt(v, layout.width[i], false);
+            } else if (v == LogFormatter.INVALID) {
+                line.appendFixed(Double.longBitsToDouble(current.raw[i]),
+                        layout.width[i], layout.precision[i], layout.plus[i]);
+            } else {
+                line.appendQuantized(v, layout.width[i], layout.precision[i], layout.plus[i]);
+            }
+        }
+        line.append('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,116 @@
+package info.altimeter.flightrecorder;
+
+/**
+ * Compact binary log format.
+ *
+ * <pre>
+ * file    := header record*
+ * header  := "FRLB" version:u8 startTime:i64 (big-endian)
+ * record  := tag:varint body
+ * tag     := channel &lt;&lt; 2 | kind
+ * DEFINE  := layout:varint                    (assigns a LogLayout to the channel)
+ * SAMPLE  := dt:svarint field:svarint*        (one field per layout field)
+ * </pre>
+ *
+ * All values are delta-encoded per channel. dt is the change in sampling interval
+ * (delta of delta of the nanosecond timestamps, first sample relative to startTime).
+ * INT fields are stored as is, REAL fields as the fixed-point value printed in the
+ * text log (LogFormatter.quantize() with the layout precision), so the exporter
+ * reproduces the text log exactly. A REAL field that has no fixed-point form
+ * (NaN, infinity) is stored as LogFormatter.INVALID followed by the raw 8-byte double.
+ */
+public class BinaryLogWriter {
+    public static final byte[] MAGIC = {'F', 'R', 'L', 'B'};
+    public static final int VERSION = 1;
+
+    public static final int KIND_SAMPLE = 0;
+    public static final int KIND_DEFINE = 1;
+
+    final long startTime;
+    boolean headerWritten = false;
+
+    public BinaryLogWriter(long startTime) {
+        this.startTime = startTime;
+    }
+
+    void writeHeader(LogFormatter out) {
+        int i;
+
+        if (headerWritten) {
+            return;
+        }
+        for (i = 0; i < MAGIC.length; i += 1) {
+            out.appendByte(MAGIC[i]);
+        }
+        out.appendByte(VERSION);
+        out.appendLong(startTime);
+        headerWritten = true;
+    }
+
+    /**
+     * Encoder for one channel of this file
+     */
+    public LogSink.Encoder channel(int id, LogLayout layout) {
+        return new ChannelEncoder(id, layout);
+    }
+
+    class ChannelEncoder implements LogSink.Encoder {
+        final int id;
+        final LogLayout layout;
+        final long[] previous;
+        long lastTime;
+        long lastInterval = 0;
+
+        ChannelEncoder(int id, LogLayout layout) {
+            this.id = id;
+            this.layout = layout;
+            previous = new long[layout.getFieldCount()];
+            lastTime = startTime;
+        }
+
+        /**
+         * A new segment repeats the header and starts the deltas from scratch
+         */
+        @Override
+        public void reset() {
+            int i;
+
+            headerWritten = false;
+            lastTime = startTime;
+            lastInterval = 0;
+            for (i = 0; i < previous.length; i += 1) {
+                previous[i] = 0;
+            }
+        }
+
+        @Override
+        public void begin(LogFormatter out) {
+            writeHeader(out);
+            out.appendVarint(((long) id << 2) | KIND_DEFINE);
+            out.appendVarint(layout.getCode());
+        }
+
+        @Override
+        public void encode(LogFormatter out, long time, long[] sample) {
+            long interval = time - lastTime;
+            int i;
+
+            out.appendVarint(((long) id << 2) | KIND_SAMPLE);
+            out.appendSignedVarint(interval - lastInterval);
+            lastTime = time;
+            lastInterval = interval;
+
+            for (i = 0; i < layout.count; i += 1) {
+                long value = sample[i];
+                if (layout.kind[i] == LogLayout.REAL) {
+                    value = LogFormatter.quantize(Double.longBitsToDouble(sample[i]), layout.precision[i]);
+                }
+                out.appendSignedVarint(value - previous[i]);
+                previous[i] = value;
+                if (layout.kind[i] == LogLayout.REAL && value == LogFormatter.INVALID) {
+                    out.appendLong(sample[i]);
+                }
+            }
+        }
+    }
+}
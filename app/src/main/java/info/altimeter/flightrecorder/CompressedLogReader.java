@@ -0,0 +1,202 @@
+package info.altimeter.flightrecorder;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads files written by CompressedLogStream as one uncompressed stream.
+ *
+ * With a time window set, blocks whose sample time range does not overlap it
+ * are skipped without being inflated, so a few minutes out of a long flight
+ * cost only those blocks. Blocks are whole, so the stream still starts and ends
+ * at block boundaries and may contain samples a little outside the window.
+ * A truncated last block (the recorder was killed) ends the stream.
+ */
+public class CompressedLogReader extends InputStream {
+    final DataInputStream in;
+    final Inflater inflater = new Inflater(true);
+    final CRC32 crc = new CRC32();
+    final long startTime;
+    long windowStart = Long.MIN_VALUE;
+    long windowEnd = Long.MAX_VALUE;
+    byte[] compressed = new byte[0];
+    byte[] raw = new byte[0];
+    int position = 0;
+    int limit = 0;
+    long blockFirst;
+    long blockLast;
+    long blocksRead = 0;
+    long blocksSkipped = 0;
+    boolean ended = false;
+
+    public CompressedLogReader(InputStream in) throws IOException {
+        int i;
+
+        this.in = new DataInputStream(in);
+        for (i = 0; i < CompressedLogStream.MAGIC.length; i += 1) {
+            if (this.in.read() != CompressedLogStream.MAGIC[i]) {
+                throw new IOException("not a compressed flight log");
+            }
+        }
+        int version = this.in.read();
+        if (version != CompressedLogStream.VERSION) {
+            throw new IOException(String.format("unsupported version %d", version));
+        }
+        startTime = this.in.readLong();
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Only returns blocks with samples between from and to (inclusive, on the sample clock)
+     */
+    public void setWindow(long from, long to) {
+        windowStart = from;
+        windowEnd = to;
+    }
+
+    /**
+     * Sample time range of the block being read
+     */
+    public long getBlockFirstTime() {
+        return blockFirst;
+    }
+
+    public long getBlockLastTime() {
+        return blockLast;
+    }
+
+    public long getBlocksRead() {
+        return blocksRead;
+    }
+
+    public long getBlocksSkipped() {
+        return blocksSkipped;
+    }
+
+    /**
+     * Reads the next block in the window into the buffer
+     *
+     * @return false at the end of the file
+     */
+    boolean nextBlock() throws IOException {
+        while (!ended) {
+            int rawLength;
+            int length;
+            long crc32;
+
+            try {
+                rawLength = in.readInt();
+                length = in.readInt();
+                blockFirst = in.readLong();
+                blockLast = in.readLong();
+                crc32 = in.readInt() & 0xffffffffL;
+            } catch (EOFException e) {
+                ended = true;
+                break;
+            }
+            if (rawLength < 0 || length < 0) {
+                throw new IOException("corrupt block header");
+            }
+
+            if (blockLast < windowStart || blockFirst > windowEnd) {
+                if (!skipFully(length)) {
+                    ended = true;
+                    break;
+                }
+                blocksSkipped += 1;
+                continue;
+            }
+
+            if (compressed.length < length) {
+                compressed = new byte[length];
+            }
+            if (raw.length < rawLength) {
+                raw = new byte[rawLength];
+            }
+            try {
+                in.readFully(compressed, 0, length);
+            } catch (EOFException e) {
+                ended = true;
+                break;
+            }
+
+            inflater.reset();
+            inflater.setInput(compressed, 0, length);
+            try {
+                limit = 0;
+                while (limit < rawLength && !inflater.finished()) {
+                    int n = inflater.inflate(raw, limit, rawLength - limit);
+                    if (n == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                    limit += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("corrupt block", e);
+            }
+            crc.reset();
+            crc.update(raw, 0, limit);
+            if (limit != rawLength || crc.getValue() != crc32) {
+                throw new IOException("block checksum mismatch");
+            }
+            position = 0;
+            blocksRead += 1;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean skipFully(long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    return false;
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        while (position == limit) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        return raw[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (position == limit) {
+            if (!nextBlock()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, limit - position);
+        System.arraycopy(raw, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+}
@@ -0,0 +1,199 @@
+package info.altimeter.flightrecorder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Deflate-compressed log file made of independently decodable blocks.
+ *
+ * <pre>
+ * file    := header block*
+ * header  := "FRLZ" version:u8 startTime:i64
+ * block   := rawLength:u32 dataLength:u32 firstTime:i64 lastTime:i64 crc32:u32 data
+ * </pre>
+ *
+ * Integers are big-endian. data is raw deflate (no zlib wrapper) of rawLength
+ * bytes, crc32 is the checksum of the uncompressed bytes. firstTime and lastTime
+ * are the earliest and latest sample timestamps in the block, on the same clock
+ * as startTime, or Long.MIN_VALUE and Long.MAX_VALUE if unknown; a reader can skip
+ * blocks outside a time window without inflating them, see CompressedLogReader.
+ *
+ * Data is collected until the block holds blockSize bytes or spans blockSpan
+ * nanoseconds of sample time; only complete blocks reach the file, so that is
+ * also what a crash can lose.
+ */
+public class CompressedLogStream extends OutputStream implements LogSink.TimedStream {
+    public static final byte[] MAGIC = {'F', 'R', 'L', 'Z'};
+    public static final int VERSION = 1;
+    public static final String SUFFIX = ".frz";
+    public static final int HEADER_SIZE = 13;
+    public static final int BLOCK_HEADER_SIZE = 28;
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    public static final long DEFAULT_BLOCK_SPAN = 60L * 1000000000L;
+
+    final OutputStream out;
+    final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    final CRC32 crc = new CRC32();
+    final int blockSize;
+    final long blockSpan;
+    final byte[] raw;
+    final byte[] compressed;
+    final LogFormatter header = new LogFormatter(BLOCK_HEADER_SIZE);
+    int rawLength = 0;
+    long firstTime = Long.MAX_VALUE;
+    long lastTime = Long.MIN_VALUE;
+    boolean untimed = false;
+    long bytesIn = 0;
+    long bytesOut = 0;
+    boolean closed = false;
+
+    public CompressedLogStream(OutputStream out, long startTime) throws IOException {
+        this(out, startTime, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCK_SPAN);
+    }
+
+    public CompressedLogStream(OutputStream out, long startTime, int blockSize, long blockSpan)
+            throws IOException {
+        int i;
+
+        this.out = out;
+        this.blockSize = blockSize;
+        this.blockSpan = blockSpan;
+        raw = new byte[blockSize];
+        compressed = new byte[blockSize + blockSize / 8 + 64];
+
+        header.reset();
+        for (i = 0; i < MAGIC.length; i += 1) {
+            header.appendByte(MAGIC[i]);
+        }
+        header.appendByte(VERSION);
+        header.appendLong(startTime);
+        header.writeTo(out);
+        bytesOut += header.length();
+    }
+
+    /**
+     * Bytes with no sample time attached, the block gets an open time range
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        untimed = true;
+        append(b, off, len);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        untimed = true;
+        if (rawLength == blockSize) {
+            writeBlock();
+        }
+        raw[rawLength++] = (byte) b;
+        bytesIn += 1;
+    }
+
+    @Override
+    public void writeBlock(byte[] b, int off, int len, long first, long last) throws IOException {
+        if (first < firstTime) {
+            firstTime = first;
+        }
+        if (last > lastTime) {
+            lastTime = last;
+        }
+        append(b, off, len);
+        if (rawLength > 0 && lastTime - firstTime >= blockSpan) {
+            writeBlock();
+        }
+    }
+
+    private void append(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+        while (len > 0) {
+            int n = Math.min(len, blockSize - rawLength);
+            System.arraycopy(b, off, raw, rawLength, n);
+            rawLength += n;
+            off += n;
+            len -= n;
+            bytesIn += n;
+            if (rawLength == blockSize) {
+                writeBlock();
+            }
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        if (rawLength == 0) {
+            return;
+        }
+
+        deflater.reset();
+        deflater.setInput(raw, 0, rawLength);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        crc.reset();
+        crc.update(raw, 0, rawLength);
+
+        boolean open = untimed || firstTime > lastTime;
+        header.reset();
+        header.appendLong(((long) rawLength << 32) | length);
+        header.appendLong(open ? Long.MIN_VALUE : firstTime);
+        header.appendLong(open ? Long.MAX_VALUE : lastTime);
+        appendInt(header, crc.getValue());
+        header.writeTo(out);
+        out.write(compressed, 0, length);
+        bytesOut += BLOCK_HEADER_SIZE + length;
+
+        rawLength = 0;
+        firstTime = Long.MAX_VALUE;
+        lastTime = Long.MIN_VALUE;
+        untimed = false;
+    }
+
+    private static void appendInt(LogFormatter out, long value) {
+        out.appendByte((int) (value >>> 24));
+        out.appendByte((int) (value >>> 16));
+        out.appendByte((int) (value >>> 8));
+        out.appendByte((int) value);
+    }
+
+    /**
+     * Passes the flush on; data in the block being filled stays buffered
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Uncompressed bytes received
+     */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     * Bytes written to the file, headers included
+     */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            writeBlock();
+            closed = true;
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+}
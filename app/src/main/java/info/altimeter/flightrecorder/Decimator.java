@@ -0,0 +1,150 @@
+package info.altimeter.flightrecorder;
+
+/**
+ * Reduces a sample stream to one sample per fixed interval holding the count
+ * and the minimum, maximum and mean of every field (LogLayout.decimated()).
+ *
+ * Buckets are aligned to the origin (the recording start), so all tiers of a
+ * recording share their bucket boundaries. The statistics are kept as running
+ * values and a bucket is passed on when the first sample of a later bucket
+ * arrives; a sample that comes late for an already closed bucket goes into the
+ * open one. NaN and infinite values are left out of the statistics of their
+ * field, and gap markers (LogLayout.isGap()) are dropped. Runs on the source
+ * thread and does not allocate.
+ */
+public class Decimator implements SensorSource.SampleListener {
+    public static final long SECOND = 1000000000L;
+
+    final LogLayout layout;
+    final LogLayout tier;
+    final long origin;
+    final long interval;
+    final SensorSource.SampleListener target;
+    final double[] min;
+    final double[] max;
+    final double[] sum;
+    final long[] valid;
+    final long[] out;
+    long bucket = 0;
+    long count = 0;
+    long buckets = 0;
+
+    /**
+     * @param layout layout of the incoming samples
+     * @param origin time (ns) of a bucket boundary
+     * @param interval bucket length (ns)
+     * @param target receives samples in layout.decimated() stamped with the bucket start
+     */
+    public Decimator(LogLayout layout, long origin, long interval, SensorSource.SampleListener target) {
+        int n = layout.getFieldCount();
+
+        this.layout = layout;
+        this.origin = origin;
+        this.interval = interval;
+        this.target = target;
+        tier = layout.decimated(suffix(interval));
+        min = new double[n];
+        max = new double[n];
+        sum = new double[n];
+        valid = new long[n];
+        out = new long[tier.getFieldCount()];
+    }
+
+    /**
+     * Name of a tier: "1s", "10s", or "250ms" below a second
+     */
+    public static String suffix(long interval) {
+        if (interval % SECOND == 0) {
+            return (interval / SECOND) + "s";
+        }
+        return (interval / 1000000) + "ms";
+    }
+
+    public LogLayout getTierLayout() {
+        return tier;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Buckets passed to the target so far
+     */
+    public long getBuckets() {
+        return buckets;
+    }
+
+    @Override
+    public void onSample(long time, long[] values) {
+        int i;
+
+        if (layout.isGap(values)) {
+            return;
+        }
+        if (count > 0 && time >= bucket + interval) {
+            emit();
+        }
+        if (count == 0) {
+            bucket = origin + Math.floorDiv(time - origin, interval) * interval;
+            for (i = 0; i < min.length; i += 1) {
+                min[i] = Double.POSITIVE_INFINITY;
+                max[i] = Double.NEGATIVE_INFINITY;
+                sum[i] = 0;
+                valid[i] = 0;
+            }
+        }
+        for (i = 0; i < min.length; i += 1) {
+            double v;
+            if (layout.kind[i] == LogLayout.INT) {
+                v = values[i];
+            } else {
+                v = Double.longBitsToDouble(values[i]);
+                if (Double.isNaN(v) || Double.isInfinite(v)) {
+                    continue;
+                }
+            }
+            if (v < min[i]) {
+                min[i] = v;
+            }
+            if (v > max[i]) {
+                max[i] = v;
+            }
+            sum[i] += v;
+            valid[i] += 1;
+        }
+        count += 1;
+    }
+
+    /**
+     * Passes on the open bucket, if it has samples; call when the source has stopped
+     */
+    public void flush() {
+        if (count > 0) {
+            emit();
+        }
+    }
+
+    private void emit() {
+        int i;
+
+        out[0] = count;
+        for (i = 0; i < min.length; i += 1) {
+            double mean = valid[i] > 0 ? sum[i] / valid[i] : Double.NaN;
+            if (layout.kind[i] == LogLayout.INT) {
+                out[1 + 3 * i] = (long) min[i];
+                out[2 + 3 * i] = (long) max[i];
+            } else if (valid[i] > 0) {
+                out[1 + 3 * i] = LogLayout.real(min[i]);
+                out[2 + 3 * i] = LogLayout.real(max[i]);
+            } else {
+                out[1 + 3 * i] = LogLayout.real(Double.NaN);
+                out[2 + 3 * i] = LogLayout.real(Double.NaN);
+            }
+            out[3 + 3 * i] = LogLayout.real(mean);
+        }
+        target.onSample(bucket, out);
+        count = 0;
+        buckets += 1;
+    }
+}
@@ -0,0 +1,345 @@
+package info.altimeter.flightrecorder;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Live air data: indicated and true airspeed, pressure altitude and vertical speed.
+ *
+ * The airspeed and pressure inputs are taps on the recording pipeline; they put
+ * samples into rings and wake the computer thread, which processes every sample
+ * at the sensor rate without allocating. A snapshot of the results is published
+ * at most every publishInterval (sample time) for the UI to read().
+ *
+ * Airspeed uses the compressible (subsonic) pitot formula. True airspeed takes
+ * the static pressure from the barometer and the temperature reported by the
+ * airspeed sensor, which reads close to the outside air if the sensor sits in
+ * the airflow; without a barometer reading ISA sea level pressure is assumed.
+ * Vertical speed is the derivative of the low-pass filtered pressure altitude,
+ * filtered again.
+ *
+ * With GNSS fixes on the location input, an AltitudeFilter fuses them with the
+ * barometer into an altitude and climb rate track at the barometer rate, and
+ * smooths the ground speed.
+ *
+ * The live values also drive a FlightPhase detector, whose listener is called
+ * on the computer thread.
+ */
+public class FlightComputer implements Runnable {
+    public static final double P0 = 1013.25;
+    public static final double SPEED_OF_SOUND_0 = 340.294;
+    public static final double PA_PER_PSI = 6894.757;
+    public static final double KELVIN = 273.15;
+    static final double GAS_CONSTANT = 287.053;
+    static final double ISA_T0 = 288.15;
+    static final double ISA_EXPONENT = 0.190263;
+    static final double ISA_HEIGHT = ISA_T0 / 0.0065;
+
+    public static final long DEFAULT_PUBLISH_INTERVAL = 200000000L;
+    static final long POLL_INTERVAL = 100000000L;
+
+    final SampleRing airspeedRing;
+    final SampleRing pressureRing;
+    final SampleRing locationRing;
+    final long[] airspeedSample = new long[LogLayout.AIRSPEED_COUNT + 1];
+    final long[] pressureSample = new long[LogLayout.PRESSURE.getFieldCount()];
+    final long[] locationSample = new long[LogLayout.LOCATION.getFieldCount()];
+    final Input airspeedInput;
+    final Input pressureInput;
+    final Input locationInput;
+    final AltitudeFilter filter = new AltitudeFilter();
+    volatile AirspeedCalibration calibration = null;
+    final FlightPhase phase = new FlightPhase();
+    final FlightData current = new FlightData();
+    final FlightData published = new FlightData();
+    double altitudeTimeConstant = 0.5;
+    double verticalSpeedTimeConstant = 1.0;
+    long publishInterval = DEFAULT_PUBLISH_INTERVAL;
+    long lastPublish = Long.MIN_VALUE;
+
+    double filteredAltitude = 0;
+    long lastPressureTime = 0;
+    final AtomicLong dropped = new AtomicLong();
+
+    Thread thread = null;
+    volatile boolean running = false;
+
+    public FlightComputer() {
+        airspeedRing = new SampleRing(1024, LogLayout.AIRSPEED_COUNT + 1);
+        pressureRing = new SampleRing(256, LogLayout.PRESSURE.getFieldCount());
+        locationRing = new SampleRing(64, LogLayout.LOCATION.getFieldCount());
+        airspeedInput = new Input(airspeedRing);
+        pressureInput = new Input(pressureRing);
+        locationInput = new Input(locationRing);
+    }
+
+    /**
+     * ISA altitude (m) of a static pressure (hPa) relative to 1013.25 hPa
+     */
+    public static double pressureAltitude(double hPa) {
+        return ISA_HEIGHT * (1 - Math.pow(hPa / P0, ISA_EXPONENT));
+    }
+
+    /**
+     * Mach number from impact pressure and static pressure (same unit)
+     */
+    static double mach(double impact, double pressure) {
+        if (impact <= 0) {
+            return 0;
+        }
+        return Math.sqrt(5 * (Math.pow(impact / pressure + 1, 2.0 / 7) - 1));
+    }
+
+    /**
+     * Indicated (calibrated) airspeed (m/s) from impact pressure (hPa)
+     */
+    public static double indicatedAirspeed(double impact) {
+        return SPEED_OF_SOUND_0 * mach(impact, P0);
+    }
+
+    /**
+     * True airspeed (m/s) from impact and static pressure (hPa) and air temperature (C)
+     */
+    public static double trueAirspeed(double impact, double pressure, double celsius) {
+        return mach(impact, pressure) * Math.sqrt(1.4 * GAS_CONSTANT * (celsius + KELVIN));
+    }
+
+    /**
+     * Low-pass time constants (s) of the altitude and of its derivative
+     */
+    public void setTimeConstants(double altitude, double verticalSpeed) {
+        altitudeTimeConstant = altitude;
+        verticalSpeedTimeConstant = verticalSpeed;
+    }
+
+    /**
+     * Calibration of the airspeed input; indicated airspeed then comes from
+     * its lookup table instead of the pitot formula
+     */
+    public void setAirspeedCalibration(AirspeedCalibration calibration) {
+        this.calibration = calibration;
+    }
+
+    public void setPublishInterval(long ns) {
+        publishInterval = ns;
+    }
+
+    /**
+     * Listener for AIRSPEED samples followed by the pressure count
+     * (LogLayout.AIRSPEED_COUNT, -1 if unknown)
+     */
+    public SensorSource.SampleListener airspeedInput() {
+        return airspeedInput;
+    }
+
+    /**
+     * Listener for PRESSURE samples
+     */
+    public SensorSource.SampleListener pressureInput() {
+        return pressureInput;
+    }
+
+    /**
+     * Listener for LOCATION samples
+     */
+    public SensorSource.SampleListener locationInput() {
+        return locationInput;
+    }
+
+    /**
+     * The fusion filter, only to be used on the computer thread
+     */
+    AltitudeFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Phase detector, to be configured before start()
+     */
+    public FlightPhase getPhase() {
+        return phase;
+    }
+
+    class Input implements SensorSource.SampleListener {
+        final SampleRing ring;
+
+        Input(SampleRing ring) {
+            this.ring = ring;
+        }
+
+        @Override
+        public void onSample(long time, long[] values) {
+            if (!ring.offer(time, values)) {
+                dropped.incrementAndGet();
+            }
+            Thread t = thread;
+            if (t != null) {
+                LockSupport.unpark(t);
+            }
+        }
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this, "flight computer");
+        thread.start();
+    }
+
+    /**
+     * Processes what is still queued and stops the thread
+     */
+    public void stop() {
+        running = false;
+        Thread t = thread;
+        if (t == null) {
+            return;
+        }
+        LockSupport.unpark(t);
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            process();
+            LockSupport.parkNanos(this, POLL_INTERVAL);
+        }
+        process();
+        publish();
+    }
+
+    /**
+     * Consumes the rings in time order
+     */
+    void process() {
+        while (true) {
+            SampleRing next = null;
+            long nextTime = 0;
+
+            if (airspeedRing.peek()) {
+                next = airspeedRing;
+                nextTime = airspeedRing.peekTime();
+            }
+            if (pressureRing.peek() && (next == null || pressureRing.peekTime() < nextTime)) {
+                next = pressureRing;
+                nextTime = pressureRing.peekTime();
+            }
+            if (locationRing.peek() && (next == null || locationRing.peekTime() < nextTime)) {
+                next = locationRing;
+            }
+
+            if (next == airspeedRing) {
+                long time = airspeedRing.take(airspeedSample);
+                onAirspeed(time, airspeedSample);
+            } else if (next == pressureRing) {
+                long time = pressureRing.take(pressureSample);
+                onPressure(time, pressureSample);
+            } else if (next == locationRing) {
+                long time = locationRing.take(locationSample);
+                onLocation(time, locationSample);
+            } else {
+                break;
+            }
+        }
+    }
+
+    void onAirspeed(long time, long[] sample) {
+        if (sample[0] == LogLayout.AIRSPEED_GAP) {
+            current.hasAirspeed = false;
+            update(time);
+            return;
+        }
+        double psi = Double.longBitsToDouble(sample[1]);
+        double celsius = Double.longBitsToDouble(sample[2]);
+        double impact = psi * PA_PER_PSI / 100;
+        double pressure = current.hasPressure ? current.staticPressure : P0;
+        AirspeedCalibration c = calibration;
+        int count = (int) sample[LogLayout.AIRSPEED_COUNT];
+
+        current.indicatedAirspeed = c != null && count >= 0 ? c.ias(count) : indicatedAirspeed(impact);
+        current.trueAirspeed = trueAirspeed(impact, pressure, celsius);
+        current.temperature = celsius;
+        current.hasAirspeed = true;
+        update(time);
+    }
+
+    void onPressure(long time, long[] sample) {
+        double hPa = Double.longBitsToDouble(sample[0]);
+        double altitude = pressureAltitude(hPa);
+
+        if (!current.hasPressure) {
+            filteredAltitude = altitude;
+            current.verticalSpeed = 0;
+        } else if (time > lastPressureTime) {
+            double dt = (time - lastPressureTime) / 1e9;
+            double previous = filteredAltitude;
+            filteredAltitude += dt / (altitudeTimeConstant + dt) * (altitude - filteredAltitude);
+            double rate = (filteredAltitude - previous) / dt;
+            current.verticalSpeed += dt / (verticalSpeedTimeConstant + dt) * (rate - current.verticalSpeed);
+        }
+        lastPressureTime = time;
+        current.staticPressure = hPa;
+        current.pressureAltitude = filteredAltitude;
+        current.hasPressure = true;
+
+        filter.addBaro(time, altitude);
+        fused();
+        update(time);
+    }
+
+    void onLocation(long time, long[] sample) {
+        double altitude = Double.longBitsToDouble(sample[3]);
+        double verticalAccuracy = Double.longBitsToDouble(sample[4]);
+        double speed = Double.longBitsToDouble(sample[5]);
+        double speedAccuracy = Double.longBitsToDouble(sample[6]);
+
+        filter.addGnss(time, altitude, verticalAccuracy);
+        filter.addGroundSpeed(time, speed, speedAccuracy);
+        fused();
+        update(time);
+    }
+
+    private void fused() {
+        current.hasFusedAltitude = filter.isInitialized();
+        current.altitude = filter.getAltitude();
+        current.climbRate = filter.getClimbRate();
+        current.altitudeError = filter.getAltitudeError();
+        current.hasGroundSpeed = filter.hasGroundSpeed();
+        current.groundSpeed = filter.getGroundSpeed();
+    }
+
+    private void update(long time) {
+        if (time > current.time) {
+            current.time = time;
+        }
+        phase.update(time, current);
+        current.phase = phase.getPhase();
+        if (lastPublish == Long.MIN_VALUE || time - lastPublish >= publishInterval) {
+            publish();
+            lastPublish = time;
+        }
+    }
+
+    private synchronized void publish() {
+        published.copyFrom(current);
+    }
+
+    /**
+     * Copies the latest published values
+     */
+    public synchronized void read(FlightData data) {
+        data.copyFrom(published);
+    }
+
+    /**
+     * Samples lost because the computer thread fell behind
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,145 @@
+package info.altimeter.flightrecorder;
+
+/**
+ * Snapshot of the quantities derived by FlightComputer, SI units
+ */
+public class FlightData {
+    /**
+     * Time of the newest sample that went into the values, on the recording clock
+     */
+    long time = 0;
+    boolean hasAirspeed = false;
+    boolean hasPressure = false;
+    double indicatedAirspeed = 0;
+    double trueAirspeed = 0;
+    double temperature = 0;
+    double staticPressure = 0;
+    double pressureAltitude = 0;
+    double verticalSpeed = 0;
+    boolean hasFusedAltitude = false;
+    double altitude = 0;
+    double climbRate = 0;
+    double altitudeError = 0;
+    boolean hasGroundSpeed = false;
+    double groundSpeed = 0;
+    int phase = FlightPhase.GROUND_IDLE;
+
+    public void copyFrom(FlightData d) {
+        time = d.time;
+        hasAirspeed = d.hasAirspeed;
+        hasPressure = d.hasPressure;
+        indicatedAirspeed = d.indicatedAirspeed;
+        trueAirspeed = d.trueAirspeed;
+        temperature = d.temperature;
+        staticPressure = d.staticPressure;
+        pressureAltitude = d.pressureAltitude;
+        verticalSpeed = d.verticalSpeed;
+        hasFusedAltitude = d.hasFusedAltitude;
+        altitude = d.altitude;
+        climbRate = d.climbRate;
+        altitudeError = d.altitudeError;
+        hasGroundSpeed = d.hasGroundSpeed;
+        groundSpeed = d.groundSpeed;
+        phase = d.phase;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public boolean hasAirspeed() {
+        return hasAirspeed;
+    }
+
+    public boolean hasPressure() {
+        return hasPressure;
+    }
+
+    /**
+     * m/s, from the differential pressure at sea level standard density
+     */
+    public double getIndicatedAirspeed() {
+        return indicatedAirspeed;
+    }
+
+    /**
+     * m/s, at the measured static pressure and temperature
+     */
+    public double getTrueAirspeed() {
+        return trueAirspeed;
+    }
+
+    /**
+     * Degrees Celsius
+     */
+    public double getTemperature() {
+        return temperature;
+    }
+
+    /**
+     * hPa
+     */
+    public double getStaticPressure() {
+        return staticPressure;
+    }
+
+    /**
+     * m, ISA altitude of the static pressure referenced to 1013.25 hPa
+     */
+    public double getPressureAltitude() {
+        return pressureAltitude;
+    }
+
+    /**
+     * m/s, positive up
+     */
+    public double getVerticalSpeed() {
+        return verticalSpeed;
+    }
+
+    /**
+     * True once the barometer or GNSS has initialized the fusion filter
+     */
+    public boolean hasFusedAltitude() {
+        return hasFusedAltitude;
+    }
+
+    /**
+     * m, barometer and GNSS fused, on the GNSS altitude reference once there was a fix
+     */
+    public double getAltitude() {
+        return altitude;
+    }
+
+    /**
+     * m/s, positive up, from the fusion filter
+     */
+    public double getClimbRate() {
+        return climbRate;
+    }
+
+    /**
+     * m, standard deviation of the fused altitude
+     */
+    public double getAltitudeError() {
+        return altitudeError;
+    }
+
+    public boolean hasGroundSpeed() {
+        return hasGroundSpeed;
+    }
+
+    /**
+     * m/s, GNSS ground speed smoothed by the fusion filter
+     */
+    public double getGroundSpeed() {
+        return groundSpeed;
+    }
+
+    /**
+     * FlightPhase constant
+     */
+    public int getPhase() {
+        return phase;
+    }
+}
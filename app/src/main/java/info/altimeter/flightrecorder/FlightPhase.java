@@ -0,0 +1,189 @@
+package info.altimeter.flightrecorder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Flight phase detection and the GNSS update policy of each phase.
+ *
+ * The phase follows the live values of FlightComputer: the aircraft is airborne
+ * when the indicated airspeed, or the GNSS ground speed without an airspeed
+ * sensor, is above airborneSpeed; on the ground it taxis above taxiSpeed. In the
+ * air, the climb rate (fused, or from the barometer alone) selects climb,
+ * descent or cruise, and a large spread of the climb rate (exponentially
+ * weighted standard deviation) means maneuvering. A new phase is taken once it
+ * has been seen continuously for the dwell time.
+ *
+ * Transitions are kept, so that the recorded GNSS rate can be interpreted later.
+ */
+public class FlightPhase {
+    public static final int GROUND_IDLE = 0;
+    public static final int TAXI = 1;
+    public static final int CLIMB = 2;
+    public static final int CRUISE = 3;
+    public static final int DESCENT = 4;
+    public static final int MANEUVERING = 5;
+
+    static final String[] NAMES = {
+            "ground idle", "taxi", "climb", "cruise", "descent", "maneuvering"
+    };
+
+    /**
+     * Minimum time (ms) and distance (m) between GNSS updates in each phase
+     */
+    static final long[] GNSS_INTERVAL_MS = {5000, 1000, 200, 1000, 200, 40};
+    static final float[] GNSS_DISTANCE_M = {10, 2, 1, 5, 1, 0};
+
+    public interface Listener {
+        /**
+         * Called on the thread that updates the detector
+         */
+        void onPhaseChange(long time, int phase);
+    }
+
+    double airborneSpeed = 15;
+    double taxiSpeed = 2;
+    double climbRate = 1.5;
+    double maneuverDeviation = 1.5;
+    double deviationTimeConstant = 5;
+    long dwell = 3000000000L;
+
+    int phase = GROUND_IDLE;
+    int candidate = GROUND_IDLE;
+    long candidateSince = 0;
+    long lastTime = 0;
+    boolean started = false;
+    double rateMean = 0;
+    double rateVariance = 0;
+    Listener listener = null;
+    final ArrayList<long[]> transitions = new ArrayList<>();
+
+    public static String name(int phase) {
+        return NAMES[phase];
+    }
+
+    public static long gnssInterval(int phase) {
+        return GNSS_INTERVAL_MS[phase];
+    }
+
+    public static float gnssDistance(int phase) {
+        return GNSS_DISTANCE_M[phase];
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Time (ns) a new phase has to hold before it is taken
+     */
+    public void setDwell(long ns) {
+        dwell = ns;
+    }
+
+    public int getPhase() {
+        return phase;
+    }
+
+    /**
+     * Classifies the current values without hysteresis
+     */
+    int classify(FlightData data) {
+        double speed;
+
+        if (data.hasAirspeed) {
+            speed = data.indicatedAirspeed;
+        } else if (data.hasGroundSpeed) {
+            speed = data.groundSpeed;
+        } else {
+            return GROUND_IDLE;
+        }
+        if (speed < airborneSpeed) {
+            if (data.hasGroundSpeed && data.groundSpeed >= taxiSpeed) {
+                return TAXI;
+            }
+            return GROUND_IDLE;
+        }
+        if (Math.sqrt(rateVariance) > maneuverDeviation) {
+            return MANEUVERING;
+        }
+        if (rateMean > climbRate) {
+            return CLIMB;
+        }
+        if (rateMean < -climbRate) {
+            return DESCENT;
+        }
+        return CRUISE;
+    }
+
+    /**
+     * Feeds the values at the given time (ns)
+     *
+     * @return true if the phase has changed
+     */
+    public boolean update(long time, FlightData data) {
+        if (!started) {
+            lastTime = time;
+            candidateSince = time;
+            started = true;
+            transitions.add(new long[] {time, phase});
+        }
+        if (time > lastTime && (data.hasFusedAltitude || data.hasPressure)) {
+            double rate = data.hasFusedAltitude ? data.climbRate : data.verticalSpeed;
+            double dt = (time - lastTime) / 1e9;
+            double a = dt / (deviationTimeConstant + dt);
+            double d = rate - rateMean;
+            rateMean += a * d;
+            rateVariance = (1 - a) * (rateVariance + a * d * d);
+        }
+        if (time > lastTime) {
+            lastTime = time;
+        }
+
+        int next = classify(data);
+        if (next != candidate) {
+            candidate = next;
+            candidateSince = time;
+        }
+        if (candidate == phase || time - candidateSince < dwell) {
+            return false;
+        }
+        phase = candidate;
+        transitions.add(new long[] {time, phase});
+        if (listener != null) {
+            listener.onPhaseChange(time, phase);
+        }
+        return true;
+    }
+
+    /**
+     * One line per phase with its start (relative to startTime) and GNSS policy
+     */
+    public String report(long startTime) {
+        StringBuilder text = new StringBuilder();
+        int i;
+
+        text.append("# time phase gnss_interval_ms gnss_distance_m\n");
+        for (i = 0; i < transitions.size(); i += 1) {
+            long[] t = transitions.get(i);
+            int p = (int) t[1];
+            text.append(String.format(Locale.US, "%.3f %s %d %.0f\n", (t[0] - startTime) / 1e9,
+                    NAMES[p].replace(' ', '_'), GNSS_INTERVAL_MS[p], GNSS_DISTANCE_M[p]));
+        }
+        return text.toString();
+    }
+
+    public void writeTo(File file, long startTime) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(report(startTime).getBytes(StandardCharsets.US_ASCII));
+        } finally {
+            out.close();
+        }
+    }
+}
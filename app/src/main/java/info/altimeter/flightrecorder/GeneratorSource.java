@@ -0,0 +1,78 @@
+package info.altimeter.flightrecorder;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base for sources that run their own thread, used to feed the recording
+ * pipeline without any hardware.
+ */
+abstract class GeneratorSource implements SensorSource, Runnable {
+    final LogLayout layout;
+    final long[] sample;
+    SampleListener listener;
+    Thread thread = null;
+    volatile boolean running = false;
+    volatile long samples = 0;
+
+    GeneratorSource(LogLayout layout) {
+        this.layout = layout;
+        sample = new long[layout.getFieldCount()];
+    }
+
+    @Override
+    public LogLayout getLayout() {
+        return layout;
+    }
+
+    @Override
+    public boolean start(SampleListener listener) {
+        this.listener = listener;
+        running = true;
+        thread = new Thread(this, layout.getName() + " source");
+        thread.start();
+        return true;
+    }
+
+    /**
+     * Stops the thread and waits for it to exit
+     */
+    @Override
+    public void stop() {
+        running = false;
+        await();
+    }
+
+    /**
+     * Waits until the source has emitted all its samples
+     */
+    public void await() {
+        Thread t = thread;
+        if (t == null) {
+            return;
+        }
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void emit(long time) {
+        listener.onSample(time, sample);
+        samples += 1;
+    }
+
+    /**
+     * Sleeps until System.nanoTime() reaches the deadline or the source is stopped
+     */
+    void pace(long deadline) {
+        long delay;
+        while (running && (delay = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, delay);
+        }
+    }
+
+    public long getSampleCount() {
+        return samples;
+    }
+}
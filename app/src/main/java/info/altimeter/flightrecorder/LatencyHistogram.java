@@ -0,0 +1,142 @@
+package info.altimeter.flightrecorder;
+
+import java.util.Locale;
+
+/**
+ * Histogram of nanosecond durations with logarithmic buckets of about 3% width,
+ * in the manner of HdrHistogram.
+ *
+ * All storage is allocated up front, so record() can be called on sensor and
+ * writer threads. Each histogram must be recorded from a single thread; other
+ * threads may read it, and see a slightly stale state.
+ */
+public class LatencyHistogram {
+    static final int SUB_BITS = 6;
+    static final int SUB = 1 << SUB_BITS;
+    static final int HALF = SUB / 2;
+
+    /**
+     * Values of 2^40 ns (about 18 minutes) and more go to the last bucket
+     */
+    static final int MAX_BITS = 40;
+    static final int BUCKETS = SUB + (MAX_BITS - SUB_BITS + 1) * HALF;
+
+    final long[] counts = new long[BUCKETS];
+    volatile long count = 0;
+    long min = Long.MAX_VALUE;
+    long max = 0;
+    double sum = 0;
+    double sumSquares = 0;
+
+    static int index(long value) {
+        if (value < SUB) {
+            return (int) Math.max(value, 0);
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        int i = SUB + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+        return Math.min(i, BUCKETS - 1);
+    }
+
+    /**
+     * Highest value that falls into bucket i
+     */
+    static long highestValue(int i) {
+        if (i < SUB) {
+            return i;
+        }
+        int shift = (i - SUB) / HALF + 1;
+        long mantissa = (i - SUB) % HALF + HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Negative values are counted as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[index(value)] += 1;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        sum += value;
+        sumSquares += (double) value * value;
+        count += 1;
+    }
+
+    public void reset() {
+        int i;
+
+        for (i = 0; i < BUCKETS; i += 1) {
+            counts[i] = 0;
+        }
+        min = Long.MAX_VALUE;
+        max = 0;
+        sum = 0;
+        sumSquares = 0;
+        count = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        long n = count;
+        return n == 0 ? 0 : sum / n;
+    }
+
+    public double getStdDev() {
+        long n = count;
+        if (n < 2) {
+            return 0;
+        }
+        double mean = sum / n;
+        return Math.sqrt(Math.max(0, sumSquares / n - mean * mean));
+    }
+
+    /**
+     * Smallest bucket bound that is not exceeded by the given share of the values
+     *
+     * @param percentile 0 to 100
+     */
+    public long getValueAtPercentile(double percentile) {
+        long n = count;
+        if (n == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        int i;
+
+        for (i = 0; i < BUCKETS; i += 1) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(highestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * "p50 p99 max" in milliseconds
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "p50 %.3f p99 %.3f max %.3f ms",
+                getValueAtPercentile(50) / 1e6, getValueAtPercentile(99) / 1e6, getMax() / 1e6);
+    }
+}
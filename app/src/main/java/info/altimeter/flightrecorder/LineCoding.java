@@ -0,0 +1,189 @@
+package info.altimeter.flightrecorder;
+
+import java.util.Locale;
+
+/**
+ * Serial port settings, in the 7-byte format of the CDC SET_LINE_CODING
+ * and GET_LINE_CODING requests.
+ *
+ * A text form like "115200 8N1" is used for logging and configuration.
+ */
+public class LineCoding {
+    public static final int STOP_1 = 0;
+    public static final int STOP_1_5 = 1;
+    public static final int STOP_2 = 2;
+
+    public static final int PARITY_NONE = 0;
+    public static final int PARITY_ODD = 1;
+    public static final int PARITY_EVEN = 2;
+    public static final int PARITY_MARK = 3;
+    public static final int PARITY_SPACE = 4;
+
+    public static final int SIZE = 7;
+
+    /**
+     * Rates tried, from the fastest down, when a device refuses the requested one
+     */
+    public static final int[] STANDARD_RATES = {
+            921600, 460800, 230400, 115200, 57600, 38400, 19200, 9600
+    };
+
+    private static final String PARITY_CODES = "NOEMS";
+    private static final String[] STOP_CODES = {"1", "1.5", "2"};
+
+    public static final LineCoding DEFAULT = new LineCoding(9600, 8, PARITY_NONE, STOP_1);
+
+    /**
+     * Sensor firmware built for 115200. Never chosen automatically: the host
+     * cannot tell the rate the firmware runs at, GET_LINE_CODING only echoes
+     * the host setting. See RecordingService.saveLineCoding().
+     */
+    public static final LineCoding ARDUINO = new LineCoding(115200, 8, PARITY_NONE, STOP_1);
+
+    /**
+     * Settings offered for a sensor, DEFAULT first
+     */
+    public static final LineCoding[] CHOICES = {DEFAULT, DEFAULT.withBaudRate(57600), ARDUINO};
+
+    final int baudRate;
+    final int dataBits;
+    final int parity;
+    final int stopBits;
+
+    public LineCoding(int baudRate, int dataBits, int parity, int stopBits) {
+        if (baudRate <= 0) {
+            throw new IllegalArgumentException("invalid baud rate " + baudRate);
+        }
+        if (dataBits < 5 || dataBits > 8 && dataBits != 16) {
+            throw new IllegalArgumentException("invalid number of data bits " + dataBits);
+        }
+        if (parity < PARITY_NONE || parity > PARITY_SPACE) {
+            throw new IllegalArgumentException("invalid parity " + parity);
+        }
+        if (stopBits < STOP_1 || stopBits > STOP_2) {
+            throw new IllegalArgumentException("invalid stop bits " + stopBits);
+        }
+        this.baudRate = baudRate;
+        this.dataBits = dataBits;
+        this.parity = parity;
+        this.stopBits = stopBits;
+    }
+
+    /**
+     * Parses the text form, e.g. "115200 8N1" or "9600 7E1.5"
+     */
+    public static LineCoding parse(String text) {
+        String[] parts = text.trim().split("\\s+");
+        if (parts.length != 2 || parts[1].length() < 3) {
+            throw new IllegalArgumentException("invalid line coding \"" + text + "\"");
+        }
+
+        String frame = parts[1].toUpperCase(Locale.US);
+        int parity = PARITY_CODES.indexOf(frame.charAt(1));
+        int stop = -1;
+        int i;
+
+        for (i = 0; i < STOP_CODES.length; i += 1) {
+            if (frame.substring(2).equals(STOP_CODES[i])) {
+                stop = i;
+            }
+        }
+        if (parity < 0 || stop < 0) {
+            throw new IllegalArgumentException("invalid line coding \"" + text + "\"");
+        }
+
+        try {
+            return new LineCoding(Integer.parseInt(parts[0]), frame.charAt(0) - '0', parity, stop);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid line coding \"" + text + "\"", e);
+        }
+    }
+
+    /**
+     * Decodes a GET_LINE_CODING response
+     */
+    public static LineCoding fromBytes(byte[] data) {
+        int rate = (data[0] & 0xFF) | (data[1] & 0xFF) << 8
+                | (data[2] & 0xFF) << 16 | (data[3] & 0xFF) << 24;
+        return new LineCoding(rate, data[6] & 0xFF, data[5] & 0xFF, data[4] & 0xFF);
+    }
+
+    /**
+     * Encodes the settings for SET_LINE_CODING
+     */
+    public void toBytes(byte[] data) {
+        data[0] = (byte) (baudRate & 0xFF);
+        data[1] = (byte) ((baudRate & 0xFF00) >> 8);
+        data[2] = (byte) ((baudRate & 0xFF0000) >> 16);
+        data[3] = (byte) ((baudRate & 0xFF000000) >> 24);
+        data[4] = (byte) stopBits;
+        data[5] = (byte) parity;
+        data[6] = (byte) dataBits;
+    }
+
+    /**
+     * Same settings at a different rate
+     */
+    public LineCoding withBaudRate(int rate) {
+        return new LineCoding(rate, dataBits, parity, stopBits);
+    }
+
+    public int getBaudRate() {
+        return baudRate;
+    }
+
+    /**
+     * Line time of one character in tenths of a bit: start, data, parity and stop bits
+     */
+    int characterBits10() {
+        int bits = 10 * (1 + dataBits) + 5 * stopBits + 10;
+        if (parity != PARITY_NONE) {
+            bits += 10;
+        }
+        return bits;
+    }
+
+    /**
+     * Time (ns) the line takes to carry one character
+     */
+    public long characterTime() {
+        return characterBits10() * 100000000L / baudRate;
+    }
+
+    /**
+     * Highest number of frames per second the line can carry
+     *
+     * @param frameSize characters per frame, including the line end
+     */
+    public int maxFrameRate(int frameSize) {
+        return (int) (baudRate * 10L / ((long) characterBits10() * frameSize));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof LineCoding)) {
+            return false;
+        }
+        LineCoding c = (LineCoding) o;
+        return c.baudRate == baudRate && c.dataBits == dataBits
+                && c.parity == parity && c.stopBits == stopBits;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((baudRate * 31 + dataBits) * 31 + parity) * 31 + stopBits;
+    }
+
+    /**
+     * Text form read by parse(), e.g. "115200 8N1"
+     */
+    public String format() {
+        return String.format(Locale.US, "%d %d%c%s", baudRate, dataBits,
+                PARITY_CODES.charAt(parity), STOP_CODES[stopBits]);
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+}
@@ -0,0 +1,123 @@
+package info.altimeter.flightrecorder;
+
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+
+/**
+ * GNSS fixes, timestamped with the elapsed realtime of the fix. The GNSS time
+ * of each fix is passed to the Timebase, if there is one, as a UTC anchor.
+ */
+public class LocationSource implements SensorSource, LocationListener {
+    static final long MIN_TIME_MS = 40;
+    static final float MIN_DISTANCE_M = 1;
+
+    final LocationManager locationManager;
+    final long[] sample = new long[LogLayout.LOCATION.getFieldCount()];
+    SampleListener listener;
+    Timebase timebase = null;
+    long minTime = MIN_TIME_MS;
+    float minDistance = MIN_DISTANCE_M;
+    boolean started = false;
+    long fixes = 0;
+
+    public LocationSource(LocationManager locationManager) {
+        this.locationManager = locationManager;
+    }
+
+    public void setTimebase(Timebase timebase) {
+        this.timebase = timebase;
+    }
+
+    /**
+     * Minimum time (ms) and distance (m) between updates. Re-registers the
+     * updates if already started; call on the thread that called start().
+     */
+    public boolean setUpdates(long ms, float m) {
+        if (ms == minTime && m == minDistance) {
+            return true;
+        }
+        minTime = ms;
+        minDistance = m;
+        if (!started) {
+            return true;
+        }
+        return request();
+    }
+
+    public long getMinTime() {
+        return minTime;
+    }
+
+    private boolean request() {
+        try {
+            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER,
+                    minTime, minDistance, this);
+        } catch (SecurityException | IllegalArgumentException e) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public LogLayout getLayout() {
+        return LogLayout.LOCATION;
+    }
+
+    /**
+     * The caller must hold the ACCESS_FINE_LOCATION permission
+     */
+    @Override
+    public boolean start(SampleListener listener) {
+        this.listener = listener;
+        started = request();
+        return started;
+    }
+
+    @Override
+    public void stop() {
+        started = false;
+        locationManager.removeUpdates(this);
+    }
+
+    public long getFixCount() {
+        return fixes;
+    }
+
+    @Override
+    public void onLocationChanged(Location location) {
+        sample[0] = LogLayout.real(location.getLongitude());
+        sample[1] = LogLayout.real(location.getLatitude());
+        sample[2] = LogLayout.real(location.getAccuracy());
+        sample[3] = LogLayout.real(location.getAltitude());
+        sample[4] = LogLayout.real(location.getVerticalAccuracyMeters());
+
+        /*
+         * Log ground speed, with uncertainty
+         */
+        sample[5] = LogLayout.real(location.getSpeed());
+        sample[6] = LogLayout.real(location.getSpeedAccuracyMetersPerSecond());
+
+        listener.onSample(location.getElapsedRealtimeNanos(), sample);
+        if (timebase != null) {
+            timebase.setGnssTime(location.getElapsedRealtimeNanos(), location.getTime());
+        }
+        fixes += 1;
+    }
+
+    @Override
+    public void onProviderDisabled(String provider) {
+        // OK
+    }
+
+    @Override
+    public void onProviderEnabled(String provider) {
+        // OK
+    }
+
+    @Override
+    public void onStatusChanged(String provider, int status, Bundle extras) {
+        // OK
+    }
+}
@@ -0,0 +1,317 @@
+package info.altimeter.flightrecorder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * Converts binary logs back to the text format written by the recorder.
+ * Compressed logs (CompressedLogStream.SUFFIX) are inflated first; text logs
+ * are simply written out uncompressed. Raw airspeed logs, binary or text, are
+ * converted to airspeed logs with the calibration profile recorded next to
+ * them (RawAirspeedConverter.CALIBRATION_SUFFIX) or one given by the caller.
+ *
+ * Plain Java, usable on the device or on a desktop:
+ * java info.altimeter.flightrecorder.LogExporter [-c "A 1.0 0.00"] 20210314120000.pressure.bin ...
+ */
+public class LogExporter {
+    public static final int ALL_CHANNELS = -1;
+
+    /**
+     * File name ending of multiplexed logs (LogSink.Container)
+     */
+    public static final String CONTAINER_SUFFIX = ".flight.bin";
+
+    /**
+     * Writes the text log of one channel, or of all channels in file order
+     *
+     * @return number of samples exported
+     */
+    public static long export(InputStream in, OutputStream out, int channel) throws IOException {
+        BinaryLogReader reader = new BinaryLogReader(in);
+        LogFormatter line = new LogFormatter(64 * 1024);
+        long count = 0;
+
+        while (reader.next()) {
+            if (channel != ALL_CHANNELS && reader.getChannel() != channel) {
+                continue;
+            }
+            reader.format(line);
+            if (line.length() >= 60 * 1024) {
+                line.writeTo(out);
+                line.reset();
+            }
+            count += 1;
+        }
+        line.writeTo(out);
+        return count;
+    }
+
+    /**
+     * Copies the uncompressed contents of a compressed log
+     *
+     * @return number of bytes written
+     */
+    public static long decompress(InputStream in, OutputStream out) throws IOException {
+        CompressedLogReader reader = new CompressedLogReader(in);
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        int n;
+
+        while ((n = reader.read(buffer, 0, buffer.length)) > 0) {
+            out.write(buffer, 0, n);
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Position of the ".raw" part in the name of a raw log
+     * ("name.airspeed.raw.0003"), -1 if there is none
+     */
+    static int rawIndex(String base) {
+        int k = base.lastIndexOf(RawAirspeedConverter.RAW);
+        int end = k + RawAirspeedConverter.RAW.length();
+        if (k < 0 || (end != base.length() && base.charAt(end) != '.')) {
+            return -1;
+        }
+        return k;
+    }
+
+    /**
+     * The calibration profile stored in a sidecar file, the default profile if there is none
+     */
+    public static AirspeedCalibration readCalibration(File file) throws IOException {
+        if (!file.exists()) {
+            return new AirspeedCalibration();
+        }
+        InputStream in = new FileInputStream(file);
+        byte[] buffer = new byte[256];
+        int n;
+        try {
+            n = in.read(buffer);
+        } finally {
+            in.close();
+        }
+        try {
+            return AirspeedCalibration.parse(new String(buffer, 0, Math.max(n, 0), StandardCharsets.US_ASCII));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("bad calibration file " + file, e);
+        }
+    }
+
+    /**
+     * Converts a raw airspeed text log, base.raw.NNNN.log, to base.NNNN.log
+     */
+    static void convertRawText(InputStream in, String base, AirspeedCalibration calibration)
+            throws IOException {
+        int k = rawIndex(base);
+        if (calibration == null) {
+            calibration = readCalibration(new File(base.substring(0, k)
+                    + RawAirspeedConverter.CALIBRATION_SUFFIX));
+        }
+        String path = base.substring(0, k) + base.substring(k + RawAirspeedConverter.RAW.length());
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(path + ".log"), 64 * 1024);
+        try {
+            RawAirspeedConverter.convertText(in, out, calibration);
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    /**
+     * Segment number part of a log name ("name.pressure.0003" gives ".0003"),
+     * empty if there is none
+     */
+    static String segmentSuffix(String base) {
+        int dot = base.lastIndexOf('.');
+        int i;
+
+        if (dot < 0 || dot == base.length() - 1) {
+            return "";
+        }
+        for (i = dot + 1; i < base.length(); i += 1) {
+            if (base.charAt(i) < '0' || base.charAt(i) > '9') {
+                return "";
+            }
+        }
+        return base.substring(dot);
+    }
+
+    /**
+     * Exports every channel of a binary log to base.name.log files next to it,
+     * base.name.NNNN.log for segment NNNN of a rotated log
+     */
+    public static void exportFile(File file) throws IOException {
+        exportFile(file, null);
+    }
+
+    /**
+     * Exports a log; raw airspeed channels are converted with the given
+     * calibration, or if null with the one stored next to the log
+     */
+    public static void exportFile(File file, AirspeedCalibration calibration) throws IOException {
+        String base = file.getPath();
+        InputStream in = new FileInputStream(file);
+
+        if (base.endsWith(CompressedLogStream.SUFFIX)) {
+            base = base.substring(0, base.length() - CompressedLogStream.SUFFIX.length());
+            if (!base.endsWith(".bin")) {
+                if (base.endsWith(".log") && rawIndex(base.substring(0, base.length() - 4)) >= 0) {
+                    convertRawText(new CompressedLogReader(in), base.substring(0, base.length() - 4),
+                            calibration);
+                    return;
+                }
+                OutputStream out = new FileOutputStream(base);
+                try {
+                    decompress(in, out);
+                } finally {
+                    in.close();
+                    out.close();
+                }
+                return;
+            }
+            in = new CompressedLogReader(in);
+        } else if (base.endsWith(".log") && rawIndex(base.substring(0, base.length() - 4)) >= 0) {
+            convertRawText(in, base.substring(0, base.length() - 4), calibration);
+            return;
+        }
+
+        if (base.endsWith(".bin")) {
+            base = base.substring(0, base.length() - 4);
+        }
+        String segment = segmentSuffix(base);
+        base = base.substring(0, base.length() - segment.length());
+        String container = CONTAINER_SUFFIX.substring(0, CONTAINER_SUFFIX.length() - 4);
+        /*
+         * Other binary logs written by the recorder hold one channel and are
+         * named after it, e.g. base.airspeed2 for a second airspeed sensor
+         */
+        boolean single = !base.endsWith(container) && new File(base).getName().indexOf('.') > 0;
+        if (base.endsWith(container)) {
+            base = base.substring(0, base.length() - container.length());
+        }
+
+        HashMap<Integer, OutputStream> outputs = new HashMap<>();
+        HashMap<String, Integer> names = new HashMap<>();
+        HashMap<Integer, AirspeedCalibration> calibrations = new HashMap<>();
+        long[] sample = new long[LogLayout.AIRSPEED.getFieldCount()];
+        LogFormatter line = new LogFormatter();
+        BinaryLogReader reader = new BinaryLogReader(in);
+
+        try {
+            while (reader.next()) {
+                OutputStream out = outputs.get(reader.getChannel());
+                if (out == null) {
+                    boolean raw = reader.getLayout().getCode() == LogLayout.AIRSPEED_RAW.getCode();
+                    String name = raw ? LogLayout.AIRSPEED.getName() : reader.getLayout().getName();
+                    Integer seen = names.get(name);
+                    names.put(name, seen == null ? 1 : seen + 1);
+                    if (seen != null) {
+                        /*
+                         * Further channels of a layout, e.g. a second airspeed sensor
+                         */
+                        name = name + (seen + 1);
+                    }
+                    String prefix = base.endsWith("." + name)
+                            ? base.substring(0, base.length() - name.length() - 1) : base;
+                    String path = prefix + "." + name;
+                    String sidecar = path + RawAirspeedConverter.CALIBRATION_SUFFIX;
+                    if (single && outputs.isEmpty()) {
+                        int k = rawIndex(base);
+                        path = raw && k >= 0 ? base.substring(0, k) : base;
+                        sidecar = path + RawAirspeedConverter.CALIBRATION_SUFFIX;
+                    }
+                    path += segment;
+                    if (raw) {
+                        AirspeedCalibration c = calibration;
+                        if (c == null) {
+                            c = readCalibration(new File(sidecar));
+                        }
+                        calibrations.put(reader.getChannel(), c.compile());
+                    }
+                    out = new BufferedOutputStream(new FileOutputStream(path + ".log"), 64 * 1024);
+                    outputs.put(reader.getChannel(), out);
+                }
+                line.reset();
+                AirspeedCalibration c = calibrations.get(reader.getChannel());
+                if (c != null) {
+                    RawAirspeedConverter.convert(reader.getField(0), c, sample);
+                    LogLayout.AIRSPEED.format(line, reader.getTime() - reader.getStartTime(), sample);
+                } else {
+                    reader.format(line);
+                }
+                line.writeTo(out);
+            }
+        } finally {
+            reader.close();
+            for (OutputStream out : outputs.values()) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Cuts the time range from..to (ns since the recording start) out of every
+     * segmented text log of a recording, into prefix.from-to.log files
+     * (seconds) next to them
+     *
+     * @param name recording name, the common prefix of its log files
+     * @return number of logs written
+     */
+    public static int extractRange(File dir, String name, long from, long to) throws IOException {
+        File[] files = dir.listFiles();
+        int count = 0;
+
+        if (files == null) {
+            return 0;
+        }
+        for (File file : files) {
+            String path = file.getPath();
+            if (!file.getName().startsWith(name + ".") || !path.endsWith(LogSegments.INDEX_SUFFIX)) {
+                continue;
+            }
+            SegmentIndex index = SegmentIndex.read(file);
+            if (!".log".equals(index.suffix)) {
+                continue;
+            }
+            String prefix = path.substring(0, path.length() - LogSegments.INDEX_SUFFIX.length());
+            OutputStream out = new FileOutputStream(String.format(Locale.US, "%s.%d-%d.log",
+                    prefix, from / 1000000000L, to / 1000000000L));
+            try {
+                index.copyRange(from, to, out);
+            } finally {
+                out.close();
+            }
+            count += 1;
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws IOException {
+        AirspeedCalibration calibration = null;
+        int first = 0;
+
+        if (args.length >= 2 && args[0].equals("-c")) {
+            calibration = AirspeedCalibration.parse(args[1]);
+            first = 2;
+        }
+        if (args.length == first) {
+            System.err.println("usage: LogExporter [-c \"A|B range zero\"] file.bin ...");
+            System.exit(1);
+        }
+
+        int i;
+        for (i = first; i < args.length; i += 1) {
+            exportFile(new File(args[i]), calibration);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package info.altimeter.flightrecorder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Reusable ASCII line builder for the recorder logs.
+ *
+ * Produces the same bytes as String.format(Locale.US, ...) for the
+ * patterns used in the logs ("%4d:%02d:%02d.%03d", "%d", "%+8.4f",
+ * "%7.3f" and so on), but writes into a preallocated buffer instead of
+ * creating strings for every sample.
+ */
+public class LogFormatter {
+    private static final long[] POW10 = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L,
+            100000000L, 1000000000L, 10000000000L
+    };
+
+    /* Largest scaled magnitude handled without falling back to String.format */
+    private static final double MAX_SCALED = 1e15;
+
+    public static final int MAX_PRECISION = POW10.length - 1;
+
+    byte[] buffer;
+    int length = 0;
+    char[] digits = new char[20];
+
+    public LogFormatter() {
+        this(256);
+    }
+
+    public LogFormatter(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    public void reset() {
+        length = 0;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, 0, length, StandardCharsets.US_ASCII);
+    }
+
+    private void ensureCapacity(int n) {
+        if (length + n > buffer.length) {
+            byte[] larger = new byte[Math.max(buffer.length * 2, length + n)];
+            System.arraycopy(buffer, 0, larger, 0, length);
+            buffer = larger;
+        }
+    }
+
+    public LogFormatter append(char c) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * Raw byte, for binary records
+     */
+    public LogFormatter appendByte(int b) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) b;
+        return this;
+    }
+
+    /**
+     * Unsigned LEB128 varint
+     */
+    public LogFormatter appendVarint(long v) {
+        ensureCapacity(10);
+        while ((v & ~0x7FL) != 0) {
+            buffer[length++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buffer[length++] = (byte) v;
+        return this;
+    }
+
+    /**
+     * Signed varint, zigzag encoded
+     */
+    public LogFormatter appendSignedVarint(long v) {
+        return appendVarint((v << 1) ^ (v >> 63));
+    }
+
+    /**
+     * Big-endian 64-bit value
+     */
+    public LogFormatter appendLong(long v) {
+        int i;
+
+        ensureCapacity(8);
+        for (i = 56; i >= 0; i -= 8) {
+            buffer[length++] = (byte) (v >>> i);
+        }
+        return this;
+    }
+
+    public LogFormatter append(String s) {
+        int n = s.length();
+        int i;
+
+        ensureCapacity(n);
+        for (i = 0; i < n; i += 1) {
+            buffer[length++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    private void pad(char c, int n) {
+        ensureCapacity(n);
+        while (n > 0) {
+            buffer[length++] = (byte) c;
+            n -= 1;
+        }
+    }
+
+    /**
+     * Elapsed time as "%4d:%02d:%02d.%03d" (hours, minutes, seconds, milliseconds)
+     */
+    public LogFormatter appendTime(long ns) {
+        long ms = ns / 1000000;
+        long s = ms / 1000;
+        ms %= 1000;
+        long m = s / 60;
+        s %= 60;
+        long h = m / 60;
+        m %= 60;
+
+        appendInt(h, 4, false);
+        append(':');
+        appendInt(m, 2, true);
+        append(':');
+        appendInt(s, 2, true);
+        append('.');
+        appendInt(ms, 3, true);
+        return this;
+    }
+
+    /**
+     * Integer as "%Nd" or, with zeroPad, "%0Nd"
+     */
+    public LogFormatter appendInt(long value, int width, boolean zeroPad) {
+        if (value == Long.MIN_VALUE) {
+            String s = Long.toString(value);
+            pad(' ', width - s.length());
+            return append(s);
+        }
+
+        boolean neg = value < 0;
+        long v = neg ? -value : value;
+        int n = 0;
+
+        do {
+            digits[n++] = (char) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0);
+
+        int size = n + (neg ? 1 : 0);
+        if (!zeroPad) {
+            pad(' ', width - size);
+        }
+        if (neg) {
+            append('-');
+        }
+        if (zeroPad) {
+            pad('0', width - size);
+        }
+        ensureCapacity(n);
+        while (n > 0) {
+            buffer[length++] = (byte) digits[--n];
+        }
+        return this;
+    }
+
+    /**
+     * Decimal number as "%N.Pf" or, with plus, "%+N.Pf"
+     */
+    public LogFormatter appendFixed(double value, int width, int precision, boolean plus) {
+        long q = quantize(value, precision);
+        if (q == INVALID) {
+            return append(String.format(Locale.US, plus ? "%+" + width + "." + precision + "f"
+                    : "%" + width + "." + precision + "f", value));
+        }
+        return appendQuantized(q, width, precision, plus);
+    }
+
+    /**
+     * Marks a value that has no fixed-point representation
+     * (NaN, infinity or a magnitude too large for a long)
+     */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    /**
+     * Rounds a value to the given number of decimals exactly the way
+     * java.util.Formatter does: half-up on the shortest decimal representation.
+     *
+     * Returns the scaled magnitude for positive values and its complement (~magnitude)
+     * for negative ones, so that negative zero ("-0.000") is not lost.
+     */
+    public static long quantize(double value, int precision) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return INVALID;
+        }
+
+        boolean neg = Double.compare(value, 0.0) < 0;
+        double v = Math.abs(value);
+        double scaled = v * POW10[precision];
+        if (scaled >= MAX_SCALED) {
+            return INVALID;
+        }
+
+        double floor = Math.floor(scaled);
+        double frac = scaled - floor;
+        long magnitude = (long) floor;
+
+        /*
+         * The product can be off by a few ulps from the decimal value that
+         * Formatter rounds, which only matters when it lands next to a tie.
+         */
+        double margin = 4 * (Math.ulp(v) * POW10[precision] + Math.ulp(scaled));
+        if (Math.abs(frac - 0.5) <= margin) {
+            return quantizeSlow(value, precision);
+        }
+
+        if (frac > 0.5) {
+            magnitude += 1;
+        }
+
+        return neg ? ~magnitude : magnitude;
+    }
+
+    private static long quantizeSlow(double value, int precision) {
+        String s = String.format(Locale.US, "%." + precision + "f", value);
+        boolean neg = s.charAt(0) == '-';
+        long magnitude = 0;
+        int i;
+
+        for (i = neg ? 1 : 0; i < s.length(); i += 1) {
+            char c = s.charAt(i);
+            if (c != '.') {
+                magnitude = magnitude * 10 + (c - '0');
+            }
+        }
+
+        return neg ? ~magnitude : magnitude;
+    }
+
+    /**
+     * Formats a value produced by quantize() as "%N.Pf" or "%+N.Pf"
+     */
+    public LogFormatter appendQuantized(long q, int width, int precision, boolean plus) {
+        boolean neg = q < 0;
+        long v = neg ? ~q : q;
+        int n = 0;
+
+        do {
+            digits[n++] = (char) ('0' + (v % 10));
+            v /= 10;
+        } while (v != 0 || n <= precision);
+
+        int size = n + (precision > 0 ? 1 : 0) + ((neg || plus) ? 1 : 0);
+        pad(' ', width - size);
+        if (neg) {
+            append('-');
+        } else if (plus) {
+            append('+');
+        }
+
+        ensureCapacity(n + 1);
+        while (n > 0) {
+            if (n == precision) {
+                buffer[length++] = '.';
+            }
+            buffer[length++] = (byte) digits[--n];
+        }
+        return this;
+    }
+}
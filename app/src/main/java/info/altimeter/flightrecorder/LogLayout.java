@@ -0,0 +1,189 @@
+package info.altimeter.flightrecorder;
+
+/**
+ * Text layout of one log channel: elapsed time followed by a list of
+ * integer or fixed-point fields, one sample per line.
+ *
+ * Samples are passed around as long[]; REAL fields hold Double.doubleToRawLongBits().
+ */
+public class LogLayout {
+    public static final int INT = 0;
+    public static final int REAL = 1;
+
+    /**
+     * "%d %+8.4f %+5.1f": status, differential pressure (psi), temperature (C)
+     */
+    public static final LogLayout AIRSPEED = new LogLayout("airspeed", 3, new int[][] {
+            /* kind, separator, width, precision, plus */
+            {INT, 0, 0, 0, 0},
+            {REAL, 1, 8, 4, 1},
+            {REAL, 1, 5, 1, 1},
+    });
+
+    /**
+     * AIRSPEED status of a gap marker, written with NaN values where the sensor
+     * link was lost; sensor readings have status 0..3
+     */
+    public static final int AIRSPEED_GAP = -1;
+
+    /**
+     * Index of the raw 14-bit pressure count that live AIRSPEED samples carry
+     * after the logged fields, -1 if unknown; not logged
+     */
+    public static final int AIRSPEED_COUNT = 3;
+
+    /**
+     * " %d": packed airspeed frame as sent by the sensor, 0..0xFFFFFFFF, see
+     * RawAirspeedConverter; AIRSPEED_GAP marks a gap
+     */
+    public static final LogLayout AIRSPEED_RAW = new LogLayout("airspeed.raw", 4, new int[][] {
+            {INT, 1, 0, 0, 0},
+    });
+
+    /**
+     * " %7.3f": static pressure (hPa)
+     */
+    public static final LogLayout PRESSURE = new LogLayout("pressure", 2, new int[][] {
+            {REAL, 1, 7, 3, 0},
+    });
+
+    /**
+     * Longitude, latitude, horizontal accuracy, altitude, vertical accuracy,
+     * ground speed, speed accuracy
+     */
+    public static final LogLayout LOCATION = new LogLayout("location", 1, new int[][] {
+            {REAL, 1, 11, 6, 1},
+            {REAL, 1, 11, 6, 1},
+            {REAL, 1, 11, 6, 0},
+            {REAL, 1, 7, 1, 1},
+            {REAL, 1, 7, 3, 0},
+            {REAL, 1, 7, 3, 0},
+            {REAL, 1, 7, 3, 0},
+    });
+
+    final String name;
+    final int code;
+    final int count;
+    final int[] kind;
+    final boolean[] space;
+    final int[] width;
+    final int[] precision;
+    final boolean[] plus;
+
+    LogLayout(String name, int code, int[][] fields) {
+        int i;
+
+        this.name = name;
+        this.code = code;
+        count = fields.length;
+        kind = new int[count];
+        space = new boolean[count];
+        width = new int[count];
+        precision = new int[count];
+        plus = new boolean[count];
+        for (i = 0; i < count; i += 1) {
+            kind[i] = fields[i][0];
+            space[i] = fields[i][1] != 0;
+            width[i] = fields[i][2];
+            precision[i] = fields[i][3];
+            plus[i] = fields[i][4] != 0;
+        }
+    }
+
+    /**
+     * Same fields and layout code under another name, for a second channel of the
+     * same kind (e.g. "airspeed2")
+     */
+    public LogLayout withName(String name) {
+        int[][] fields = new int[count][];
+        int i;
+
+        for (i = 0; i < count; i += 1) {
+            fields[i] = new int[] {kind[i], space[i] ? 1 : 0, width[i], precision[i], plus[i] ? 1 : 0};
+        }
+        return new LogLayout(name, code, fields);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Layout identifier stored in binary logs
+     */
+    public int getCode() {
+        return code;
+    }
+
+    public static LogLayout forCode(int code) {
+        switch (code) {
+            case 1:
+                return LOCATION;
+            case 2:
+                return PRESSURE;
+            case 3:
+                return AIRSPEED;
+            case 4:
+                return AIRSPEED_RAW;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * True for an AIRSPEED or AIRSPEED_RAW gap marker rather than a reading
+     */
+    public boolean isGap(long[] sample) {
+        return (code == AIRSPEED.code || code == AIRSPEED_RAW.code) && sample[0] == AIRSPEED_GAP;
+    }
+
+    public int getFieldCount() {
+        return count;
+    }
+
+    /**
+     * Layout of a decimated channel: sample count, then minimum, maximum and
+     * mean of each field. The mean of an INT field is written with 2 decimals.
+     */
+    public LogLayout decimated(String suffix) {
+        int[][] fields = new int[1 + 3 * count][];
+        int i;
+
+        fields[0] = new int[] {INT, 1, 4, 0, 0};
+        for (i = 0; i < count; i += 1) {
+            int[] field = {kind[i], 1, width[i], precision[i], plus[i] ? 1 : 0};
+            fields[1 + 3 * i] = field;
+            fields[2 + 3 * i] = field;
+            if (kind[i] == INT) {
+                fields[3 + 3 * i] = new int[] {REAL, 1, width[i] + 3, 2, 0};
+            } else {
+                fields[3 + 3 * i] = field;
+            }
+        }
+        return new LogLayout(name + "." + suffix, 0, fields);
+    }
+
+    public static long real(double value) {
+        return Double.doubleToRawLongBits(value);
+    }
+
+    /**
+     * Appends one log line for a sample taken at the given elapsed time (ns)
+     */
+    public void format(LogFormatter line, long time, long[] sample) {
+        int i;
+
+        line.appendTime(time);
+        for (i = 0; i < count; i += 1) {
+            if (space[i]) {
+                line.append(' ');
+            }
+            if (kind[i] == INT) {
+                line.appendInt(sample[i], width[i], false);
+            } else {
+                line.appendFixed(Double.longBitsToDouble(sample[i]), width[i], precision[i], plus[i]);
+            }
+        }
+        line.append('\n');
+    }
+}
@@ -0,0 +1,199 @@
+package info.altimeter.flightrecorder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Splits a log into numbered files once a file reaches a size or time span limit.
+ *
+ * The first segment keeps the plain name (prefix + suffix), later ones are named
+ * prefix.0001 + suffix and so on. Each finished segment gets a line in the
+ * index file (prefix.index) with its time range, see SegmentIndex. With a time
+ * index interval set, each segment also gets a TimeIndex sidecar.
+ *
+ * Used by LogSink on the writer thread only.
+ */
+public class LogSegments {
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_MAX_DURATION = 3600L * 1000000000L;
+    public static final String INDEX_SUFFIX = ".index";
+
+    public interface Opener {
+        OutputStream open(File file) throws IOException;
+    }
+
+    public static final Opener PLAIN = new Opener() {
+        @Override
+        public OutputStream open(File file) throws IOException {
+            return new FileOutputStream(file);
+        }
+    };
+
+    final String prefix;
+    final String suffix;
+    final long startTime;
+    Opener opener = PLAIN;
+    long maxBytes = DEFAULT_MAX_BYTES;
+    long maxDuration = DEFAULT_MAX_DURATION;
+    int timeIndexInterval = 0;
+    TimeIndex timeIndex = null;
+
+    int number = -1;
+    File file = null;
+    boolean finished = false;
+    long bytes;
+    long samples;
+    long firstTime;
+    long lastTime;
+
+    /**
+     * @param prefix path of the log without the extension, e.g. dir/20210314.pressure
+     * @param suffix extension, e.g. ".log"
+     * @param startTime recording start, index times are relative to it like the log times
+     */
+    public LogSegments(String prefix, String suffix, long startTime) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.startTime = startTime;
+    }
+
+    public void setOpener(Opener opener) {
+        this.opener = opener;
+    }
+
+    /**
+     * Size after which the next write goes to a new segment, 0 for no limit
+     */
+    public void setMaxBytes(long bytes) {
+        maxBytes = bytes;
+    }
+
+    /**
+     * Span of sample times (ns) after which the next write goes to a new segment, 0 for no limit
+     */
+    public void setMaxDuration(long ns) {
+        maxDuration = ns;
+    }
+
+    /**
+     * Index every interval-th sample of each segment, 0 for no time index.
+     * Only meaningful for text logs written without compression.
+     */
+    public void setTimeIndex(int interval) {
+        timeIndexInterval = interval;
+    }
+
+    static String segmentName(String prefix, int number, String suffix) {
+        if (number == 0) {
+            return prefix + suffix;
+        }
+        return String.format(Locale.US, "%s.%04d%s", prefix, number, suffix);
+    }
+
+    public File getFile(int number) {
+        return new File(segmentName(prefix, number, suffix));
+    }
+
+    public File getIndexFile() {
+        return new File(prefix + INDEX_SUFFIX);
+    }
+
+    /**
+     * File of the segment being written
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public int getSegmentCount() {
+        return number + 1;
+    }
+
+    /**
+     * Opens the next segment
+     */
+    OutputStream next() throws IOException {
+        number += 1;
+        file = getFile(number);
+        finished = false;
+        bytes = 0;
+        samples = 0;
+        firstTime = Long.MAX_VALUE;
+        lastTime = Long.MIN_VALUE;
+        if (timeIndexInterval > 0) {
+            timeIndex = new TimeIndex(startTime, timeIndexInterval);
+        }
+        if (number == 0) {
+            OutputStream index = new FileOutputStream(getIndexFile());
+            try {
+                index.write(String.format(Locale.US, "# start %d suffix %s\n", startTime, suffix)
+                        .getBytes(StandardCharsets.US_ASCII));
+            } finally {
+                index.close();
+            }
+        }
+        return opener.open(file);
+    }
+
+    /**
+     * @param position offset of the sample in the data not yet passed to written()
+     */
+    void sample(long time, int position) {
+        if (timeIndex != null) {
+            timeIndex.add(time, bytes + position);
+        }
+        if (time < firstTime) {
+            firstTime = time;
+        }
+        if (time > lastTime) {
+            lastTime = time;
+        }
+        samples += 1;
+    }
+
+    void written(long n) {
+        bytes += n;
+    }
+
+    boolean isFull() {
+        if (maxBytes > 0 && bytes >= maxBytes) {
+            return true;
+        }
+        return maxDuration > 0 && samples > 0 && lastTime - firstTime >= maxDuration;
+    }
+
+    /**
+     * Adds the segment being written to the index. A segment other than the
+     * first that got no samples before the log was closed is deleted instead.
+     */
+    void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (samples == 0 && number > 0) {
+            if (!file.delete()) {
+                throw new IOException("failed to delete " + file);
+            }
+            number -= 1;
+            return;
+        }
+        long first = samples == 0 ? 0 : firstTime - startTime;
+        long last = samples == 0 ? 0 : lastTime - startTime;
+        String line = String.format(Locale.US, "%d %d %d %d %d %s\n",
+                number, first, last, samples, bytes, file.getName());
+        OutputStream index = new FileOutputStream(getIndexFile(), true);
+        try {
+            index.write(line.getBytes(StandardCharsets.US_ASCII));
+        } finally {
+            index.close();
+        }
+        if (timeIndex != null && samples > 0) {
+            timeIndex.write(TimeIndex.indexFile(file));
+        }
+    }
+}
@@ -0,0 +1,650 @@
+package info.altimeter.flightrecorder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous log writer.
+ *
+ * Sensor callbacks put samples into a per-channel SampleRing and return immediately.
+ * A single writer thread encodes the samples and writes them out in large blocks,
+ * either when an output has accumulated flushSize bytes or, for all outputs at once,
+ * every flushInterval nanoseconds.
+ *
+ * Usually every channel has its own output; a Container interleaves several channels
+ * in one binary file, ordered by sample time. An output created with LogSegments
+ * moves on to a new file after a write that fills the current one; each file
+ * starts with the encoders' headers and can be read on its own. An output stream
+ * that implements TimedStream is told the sample time range of every block.
+ */
+public class LogSink implements Runnable {
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final int DEFAULT_FLUSH_SIZE = 64 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000000000L;
+    public static final long DEFAULT_POLL_INTERVAL = 100000000L;
+    public static final long DEFAULT_REORDER_WINDOW = 2000000000L;
+
+    final CopyOnWriteArrayList<Channel> channels = new CopyOnWriteArrayList<>();
+    final CopyOnWriteArrayList<Output> outputs = new CopyOnWriteArrayList<>();
+    final long startTime;
+    int flushSize = DEFAULT_FLUSH_SIZE;
+    long flushInterval = DEFAULT_FLUSH_INTERVAL;
+    long pollInterval = DEFAULT_POLL_INTERVAL;
+    Thread thread = null;
+    volatile boolean running = false;
+    volatile boolean flushRequested = false;
+    long lastFlush;
+    Clock clock = new Clock() {
+        @Override
+        public long now() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * @param startTime timestamp (ns) that corresponds to 0:00:00.000 in the logs
+     */
+    public LogSink(long startTime) {
+        this.startTime = startTime;
+    }
+
+    public void setFlushSize(int bytes) {
+        flushSize = bytes;
+    }
+
+    public void setFlushInterval(long ns) {
+        flushInterval = ns;
+    }
+
+    public void setPollInterval(long ns) {
+        pollInterval = ns;
+    }
+
+    /**
+     * Time source of the sample timestamps, used to measure write latency
+     */
+    public interface Clock {
+        long now();
+    }
+
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Turns samples into bytes on the writer thread
+     */
+    public interface Encoder {
+        /**
+         * Called before the first sample of every file, for file headers
+         */
+        void begin(LogFormatter out);
+
+        /**
+         * Forgets the state of the previous file, called before begin() on a new segment
+         */
+        void reset();
+
+        void encode(LogFormatter out, long time, long[] sample);
+    }
+
+    /**
+     * Output stream that can use the sample times of what it is given, such as
+     * a compressor that records them in its block headers
+     */
+    public interface TimedStream {
+        /**
+         * @param firstTime earliest sample time in the block, Long.MAX_VALUE if there are no samples
+         * @param lastTime latest sample time in the block, Long.MIN_VALUE if there are no samples
+         */
+        void writeBlock(byte[] b, int off, int len, long firstTime, long lastTime) throws IOException;
+    }
+
+    /**
+     * The fixed-width text format, one line per sample
+     */
+    public class TextEncoder implements Encoder {
+        final LogLayout layout;
+
+        public TextEncoder(LogLayout layout) {
+            this.layout = layout;
+        }
+
+        @Override
+        public void begin(LogFormatter out) {
+            // No header
+        }
+
+        @Override
+        public void reset() {
+            // No state
+        }
+
+        @Override
+        public void encode(LogFormatter out, long time, long[] sample) {
+            layout.format(out, time - startTime, sample);
+        }
+    }
+
+    public Channel addChannel(LogLayout layout, OutputStream out) {
+        return addChannel(layout, out, new TextEncoder(layout), DEFAULT_CAPACITY);
+    }
+
+    public Channel addChannel(LogLayout layout, OutputStream out, int capacity) {
+        return addChannel(layout, out, new TextEncoder(layout), capacity);
+    }
+
+    public Channel addChannel(LogLayout layout, OutputStream out, Encoder encoder) {
+        return addChannel(layout, out, encoder, DEFAULT_CAPACITY);
+    }
+
+    public Channel addChannel(LogLayout layout, OutputStream out, Encoder encoder, int capacity) {
+        return addChannel(layout, new Output(out, null), encoder, capacity);
+    }
+
+    /**
+     * Channel written to a series of segment files
+     *
+     * @param encoder null for the text format
+     */
+    public Channel addChannel(LogLayout layout, LogSegments segments, Encoder encoder, int capacity)
+            throws IOException {
+        if (encoder == null) {
+            encoder = new TextEncoder(layout);
+        }
+        return addChannel(layout, new Output(segments.next(), segments), encoder, capacity);
+    }
+
+    Channel addChannel(LogLayout layout, Output output, Encoder encoder, int capacity) {
+        Channel channel = new Channel(output, layout, encoder, capacity);
+        output.members.add(channel);
+        channels.add(channel);
+        outputs.add(output);
+        return channel;
+    }
+
+    /**
+     * Creates a binary file that interleaves all channels added to it
+     */
+    public Container addContainer(OutputStream out) {
+        Container container = new Container(out, null, new BinaryLogWriter(startTime));
+        outputs.add(container);
+        return container;
+    }
+
+    /**
+     * Container written to a series of segment files
+     */
+    public Container addContainer(LogSegments segments) throws IOException {
+        Container container = new Container(segments.next(), segments, new BinaryLogWriter(startTime));
+        outputs.add(container);
+        return container;
+    }
+
+    public void start() {
+        lastFlush = System.nanoTime();
+        running = true;
+        thread = new Thread(this, "log writer");
+        thread.start();
+    }
+
+    /**
+     * Asks the writer thread to write out everything received so far
+     */
+    public void requestFlush() {
+        flushRequested = true;
+        wake();
+    }
+
+    void wake() {
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    /**
+     * Stops the writer thread, writes the remaining samples and closes all outputs
+     */
+    public void close() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+
+        for (Output output : outputs) {
+            output.drain(true);
+            output.write();
+            output.close();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            drain();
+
+            long now = System.nanoTime();
+            if (flushRequested || now - lastFlush >= flushInterval) {
+                flushRequested = false;
+                flushAll();
+                lastFlush = now;
+            }
+
+            LockSupport.parkNanos(this, pollInterval);
+        }
+    }
+
+    void drain() {
+        for (Output output : outputs) {
+            output.drain(false);
+        }
+    }
+
+    void flushAll() {
+        for (Output output : outputs) {
+            output.write();
+        }
+    }
+
+    /**
+     * A file written by the writer thread, with its staging buffer and write statistics
+     */
+    class Output {
+        OutputStream out;
+        final LogSegments segments;
+        final LogFormatter staging;
+        final CopyOnWriteArrayList<Channel> members = new CopyOnWriteArrayList<>();
+        volatile long bytesWritten = 0;
+        volatile long writeErrors = 0;
+        volatile long writes = 0;
+        volatile IOException lastError = null;
+        long blockFirst = Long.MAX_VALUE;
+        long blockLast = Long.MIN_VALUE;
+
+        Output(OutputStream out, LogSegments segments) {
+            this.out = out;
+            this.segments = segments;
+            staging = new LogFormatter(flushSize + 256);
+        }
+
+        void begin() {
+            for (Channel channel : members) {
+                if (!channel.begun) {
+                    channel.encoder.begin(staging);
+                    channel.begun = true;
+                }
+            }
+        }
+
+        /**
+         * Encodes everything the producers have queued
+         *
+         * @param all the sink is closing, nothing may stay in the rings
+         */
+        void drain(boolean all) {
+            begin();
+            for (Channel channel : members) {
+                while (channel.ring.peek()) {
+                    channel.encodeNext();
+                    if (staging.length() >= flushSize) {
+                        write();
+                    }
+                }
+                channel.congested.set(false);
+            }
+        }
+
+        void write() {
+            int length = staging.length();
+            if (length == 0) {
+                return;
+            }
+
+            try {
+                if (out instanceof TimedStream) {
+                    ((TimedStream) out).writeBlock(staging.getBuffer(), 0, length, blockFirst, blockLast);
+                } else {
+                    staging.writeTo(out);
+                }
+                out.flush();
+                bytesWritten += length;
+                writes += 1;
+                long now = clock.now();
+                for (Channel channel : members) {
+                    channel.commit(now);
+                }
+            } catch (IOException e) {
+                writeErrors += 1;
+                lastError = e;
+                for (Channel channel : members) {
+                    channel.discard();
+                }
+            }
+            staging.reset();
+            blockFirst = Long.MAX_VALUE;
+            blockLast = Long.MIN_VALUE;
+
+            if (segments != null) {
+                segments.written(length);
+                if (segments.isFull()) {
+                    rotate();
+                }
+            }
+        }
+
+        /**
+         * Closes the current segment and starts the next one with fresh headers
+         */
+        void rotate() {
+            close();
+            try {
+                out = segments.next();
+            } catch (IOException e) {
+                writeErrors += 1;
+                lastError = e;
+                return;
+            }
+            for (Channel channel : members) {
+                channel.encoder.reset();
+                channel.begun = false;
+            }
+            begin();
+        }
+
+        void close() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                writeErrors += 1;
+                lastError = e;
+            }
+            if (segments != null) {
+                try {
+                    segments.finish();
+                } catch (IOException e) {
+                    writeErrors += 1;
+                    lastError = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Several channels multiplexed into one binary log.
+     *
+     * Channels deliver samples with different latencies (a GNSS fix arrives well after
+     * its timestamp), so a sample is only written once the newest sample seen on any
+     * channel is reorderWindow ahead of it. Records then appear in time order as long
+     * as no channel lags more than the window.
+     */
+    public class Container extends Output {
+        final BinaryLogWriter writer;
+        long reorderWindow = DEFAULT_REORDER_WINDOW;
+
+        Container(OutputStream out, LogSegments segments, BinaryLogWriter writer) {
+            super(out, segments);
+            this.writer = writer;
+        }
+
+        public void setReorderWindow(long ns) {
+            reorderWindow = ns;
+        }
+
+        public Channel addChannel(LogLayout layout) {
+            return addChannel(layout, DEFAULT_CAPACITY);
+        }
+
+        /**
+         * Channels are numbered in the order they are added
+         */
+        public Channel addChannel(LogLayout layout, int capacity) {
+            int id = members.size();
+            Channel channel = new Channel(this, layout, writer.channel(id, layout), capacity);
+            members.add(channel);
+            channels.add(channel);
+            return channel;
+        }
+
+        @Override
+        void drain(boolean all) {
+            long watermark = Long.MAX_VALUE;
+
+            begin();
+            if (!all) {
+                long latest = Long.MIN_VALUE;
+                for (Channel channel : members) {
+                    latest = Math.max(latest, channel.latest);
+                }
+                watermark = latest == Long.MIN_VALUE ? latest : latest - reorderWindow;
+            }
+
+            while (true) {
+                Channel next = null;
+                long nextTime = 0;
+
+                for (Channel channel : members) {
+                    if (channel.ring.peek()) {
+                        long time = channel.ring.peekTime();
+                        if (next == null || time < nextTime) {
+                            next = channel;
+                            nextTime = time;
+                        }
+                    }
+                }
+
+                if (next == null || nextTime > watermark) {
+                    break;
+                }
+
+                next.encodeNext();
+                if (staging.length() >= flushSize) {
+                    write();
+                }
+            }
+
+            for (Channel channel : members) {
+                channel.congested.set(false);
+            }
+        }
+    }
+
+    public class Channel implements SensorSource.SampleListener {
+        final Output output;
+        final LogLayout layout;
+        final Encoder encoder;
+        final SampleRing ring;
+        final long[] sample;
+        final int highWater;
+        final AtomicBoolean congested = new AtomicBoolean(false);
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong backpressure = new AtomicLong();
+        final LatencyHistogram intervals = new LatencyHistogram();
+        final LatencyHistogram latency = new LatencyHistogram();
+        volatile long latest = Long.MIN_VALUE;
+        volatile long firstTime = Long.MIN_VALUE;
+        volatile long lastTime = Long.MIN_VALUE;
+        volatile long samplesReceived = 0;
+        volatile long samplesWritten = 0;
+        volatile long bytesWritten = 0;
+        boolean begun = false;
+        int pendingSamples = 0;
+        int pendingBytes = 0;
+        long[] pendingTimes = new long[256];
+
+        Channel(Output output, LogLayout layout, Encoder encoder, int capacity) {
+            this.output = output;
+            this.layout = layout;
+            this.encoder = encoder;
+            ring = new SampleRing(capacity, layout.getFieldCount());
+            highWater = ring.capacity() / 2;
+            sample = new long[layout.getFieldCount()];
+        }
+
+        /**
+         * Called from sensor threads, never blocks.
+         *
+         * @return false if the sample was dropped because the ring is full
+         */
+        public boolean put(long time, long[] values) {
+            if (!ring.offer(time, values)) {
+                dropped.incrementAndGet();
+                wake();
+                return false;
+            }
+
+            if (time > latest) {
+                latest = time;
+            }
+
+            if (samplesReceived == 0) {
+                firstTime = time;
+            } else {
+                intervals.record(time - lastTime);
+            }
+            lastTime = time;
+            samplesReceived += 1;
+
+            if (ring.size() >= highWater && congested.compareAndSet(false, true)) {
+                backpressure.incrementAndGet();
+                wake();
+            }
+
+            return true;
+        }
+
+        @Override
+        public void onSample(long time, long[] values) {
+            put(time, values);
+        }
+
+        void encodeNext() {
+            LogFormatter staging = output.staging;
+            int length = staging.length();
+            long time = ring.take(sample);
+
+            encoder.encode(staging, time, sample);
+            pendingBytes += staging.length() - length;
+            if (pendingSamples == pendingTimes.length) {
+                long[] larger = new long[pendingTimes.length * 2];
+                System.arraycopy(pendingTimes, 0, larger, 0, pendingSamples);
+                pendingTimes = larger;
+            }
+            pendingTimes[pendingSamples] = time;
+            pendingSamples += 1;
+            if (time < output.blockFirst) {
+                output.blockFirst = time;
+            }
+            if (time > output.blockLast) {
+                output.blockLast = time;
+            }
+            if (output.segments != null) {
+                output.segments.sample(time, length);
+            }
+        }
+
+        /**
+         * @param now time the write completed, on the sample clock
+         */
+        void commit(long now) {
+            int i;
+
+            for (i = 0; i < pendingSamples; i += 1) {
+                latency.record(now - pendingTimes[i]);
+            }
+            samplesWritten += pendingSamples;
+            bytesWritten += pendingBytes;
+            pendingSamples = 0;
+            pendingBytes = 0;
+        }
+
+        void discard() {
+            pendingSamples = 0;
+            pendingBytes = 0;
+        }
+
+        public String getName() {
+            return layout.getName();
+        }
+
+        /**
+         * Samples rejected because the ring was full
+         */
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        /**
+         * Number of times producers found the ring more than half full and woke the writer early
+         */
+        public long getBackpressureEvents() {
+            return backpressure.get();
+        }
+
+        /**
+         * Samples accepted by put(), whether or not they were written since
+         */
+        public long getSamplesReceived() {
+            return samplesReceived;
+        }
+
+        /**
+         * Average sample rate between the first and the last sample, per second
+         */
+        public double getSampleRate() {
+            long n = samplesReceived;
+            long span = lastTime - firstTime;
+            if (n < 2 || span <= 0) {
+                return 0;
+            }
+            return (n - 1) * 1e9 / span;
+        }
+
+        /**
+         * Time between consecutive samples, recorded by put()
+         */
+        public LatencyHistogram getIntervals() {
+            return intervals;
+        }
+
+        /**
+         * Time from the sample timestamp until the write that contains it completed
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getSamplesWritten() {
+            return samplesWritten;
+        }
+
+        /**
+         * Encoded size of the samples written, not counting file headers
+         */
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        public long getWriteCount() {
+            return output.writes;
+        }
+
+        public long getWriteErrors() {
+            return output.writeErrors;
+        }
+
+        public IOException getLastError() {
+            return output.lastError;
+        }
+    }
+}
@@ -12,7 +12,10 @@ import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbManager;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.CheckBox;
@@ -24,6 +27,7 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.TimeZone;
 
 import androidx.annotation.NonNull;
@@ -34,16 +38,31 @@ import androidx.core.content.ContextCompat;
 import static android.Manifest.permission.ACCESS_FINE_LOCATION;
 
 public class MainActivity extends AppCompatActivity {
+    private static final String TAG = "MainActivity";
     Button buttonStart;
     Button buttonStop;
+    Button buttonZero;
     Button buttonSelectDevice;
+    Button buttonLineCoding;
     CheckBox checkLocation;
     CheckBox checkPressure;
+    CheckBox checkBatchPressure;
     CheckBox checkAirspeed;
+    CheckBox checkBinary;
+    CheckBox checkSingleFile;
+    CheckBox checkCompressed;
+    CheckBox checkRawAirspeed;
+    CheckBox checkPreallocate;
     EditText editFileName;
     TextView viewDeviceInfo;
-
-    UsbDevice deviceAirSpeed;
+    TextView viewStatus;
+    TextView viewFlight;
+    Handler handler = new Handler(Looper.getMainLooper());
+    StatusUpdater statusUpdater = new StatusUpdater();
+    FlightDisplay flightDisplay = new FlightDisplay();
+    RecordingMetrics metrics = null;
+
+    final ArrayList<UsbDevice> airspeedDevices = new ArrayList<>();
     RecordingService recordService = null;
     TrackRecordingServiceConnection connection = null;
     GregorianCalendar time;
@@ -51,6 +70,61 @@ public class MainActivity extends AppCompatActivity {
     boolean hasBarometer = false;
 
     static final int REQUEST_AIRSPEED_DEVICE_SELECT = 1000;
+    static final long STATUS_INTERVAL_MS = 1000;
+    static final long FLIGHT_INTERVAL_MS = 200;
+
+    /**
+     * Shows the recording metrics once a second while the activity is visible
+     */
+    class StatusUpdater implements Runnable {
+        @Override
+        public void run() {
+            if (viewStatus == null) {
+                return;
+            }
+            if (metrics != null && recordService != null && recordService.isRecording()) {
+                viewStatus.setText(metrics.report());
+            }
+            handler.postDelayed(this, STATUS_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Shows the live air data five times a second while recording
+     */
+    class FlightDisplay implements Runnable {
+        final FlightData data = new FlightData();
+
+        @Override
+        public void run() {
+            if (viewFlight == null) {
+                return;
+            }
+            FlightComputer computer = recordService == null ? null : recordService.getFlightComputer();
+            if (computer != null && recordService.isRecording()) {
+                computer.read(data);
+                StringBuilder text = new StringBuilder();
+                if (data.hasAirspeed()) {
+                    text.append(String.format(Locale.US, "IAS %5.1f m/s  TAS %5.1f m/s  %4.1f C\n",
+                            data.getIndicatedAirspeed(), data.getTrueAirspeed(), data.getTemperature()));
+                }
+                if (data.hasPressure()) {
+                    text.append(String.format(Locale.US, "PALT %6.1f m  VS %+5.1f m/s\n",
+                            data.getPressureAltitude(), data.getVerticalSpeed()));
+                }
+                if (data.hasFusedAltitude()) {
+                    text.append(String.format(Locale.US, "ALT %6.1f m (%.1f)  CLIMB %+5.1f m/s",
+                            data.getAltitude(), data.getAltitudeError(), data.getClimbRate()));
+                }
+                if (data.hasGroundSpeed()) {
+                    text.append(String.format(Locale.US, "  GS %5.1f m/s", data.getGroundSpeed()));
+                }
+                text.append('\n').append(FlightPhase.name(data.getPhase()));
+                viewFlight.setText(text);
+            }
+            handler.postDelayed(this, FLIGHT_INTERVAL_MS);
+        }
+    }
 
     class TrackRecordingServiceConnection implements ServiceConnection {
 
@@ -60,6 +134,7 @@ public class MainActivity extends AppCompatActivity {
 
             binder = (RecordingService.TrackRecordingServiceBinder) service;
             recordService = binder.getService();
+            metrics = binder.getMetrics();
 
             boolean recording = recordService.isRecording();
             if (buttonStart != null) {
@@ -68,29 +143,49 @@ public class MainActivity extends AppCompatActivity {
             if (buttonStop != null) {
                 buttonStop.setEnabled(recording);
             }
+            if (buttonZero != null) {
+                buttonZero.setEnabled(recording);
+            }
 
             if (recording) {
-                deviceAirSpeed  = recordService.getAirspeedDevice();
+                airspeedDevices.clear();
+                airspeedDevices.addAll(recordService.getAirspeedDevices());
                 updateDeviceInfo();
                 checkLocation.setChecked(recordService.isLocationRecorded());
                 checkLocation.setEnabled(false);
                 checkPressure.setChecked(recordService.isPressureRecorded());
                 checkPressure.setEnabled(false);
+                checkBatchPressure.setChecked(recordService.isPressureBatched());
+                checkBatchPressure.setEnabled(false);
                 checkAirspeed.setChecked(recordService.isAirspeedRecorded());
                 checkAirspeed.setEnabled(false);
+                checkBinary.setChecked(recordService.isBinaryFormat());
+                checkBinary.setEnabled(false);
+                checkSingleFile.setChecked(recordService.isSingleFile());
+                checkSingleFile.setEnabled(false);
+                checkCompressed.setChecked(recordService.isCompressed());
+                checkCompressed.setEnabled(false);
+                checkRawAirspeed.setChecked(recordService.isRawAirspeed());
+                checkRawAirspeed.setEnabled(false);
+                checkPreallocate.setChecked(recordService.isPreallocated());
+                checkPreallocate.setEnabled(false);
                 String filename = recordService.getFileName();
                 if (filename != null) {
                     editFileName.setText(filename);
                 }
                 editFileName.setEnabled(false);
+            } else {
+                updateDeviceInfo();
             }
         }
 
         @Override
         public void onServiceDisconnected(ComponentName name) {
             recordService = null;
+            metrics = null;
             buttonStart.setEnabled(false);
             buttonStop.setEnabled(false);
+            buttonZero.setEnabled(false);
         }
 
     };
@@ -99,7 +194,10 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void onClick(View view) {
             recordService.setLogFilename(editFileName.getText().toString());
-            recordService.setAirspeedDevice(deviceAirSpeed);
+            recordService.setAirspeedDevice(null);
+            for (UsbDevice device : airspeedDevices) {
+                recordService.addAirspeedDevice(device);
+            }
 
             Intent intent = new Intent(MainActivity.this, RecordingService.class);
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
@@ -116,15 +214,42 @@ public class MainActivity extends AppCompatActivity {
                 if (checkPressure.isChecked()) {
                     flags |= RecordingService.FLAGS_PRESSURE;
                 }
+                if (checkBatchPressure.isChecked()) {
+                    flags |= RecordingService.FLAGS_BATCH_PRESSURE;
+                }
                 if (checkLocation.isChecked()) {
                     flags |= RecordingService.FLAGS_LOCATION;
                 }
+                if (checkBinary.isChecked()) {
+                    flags |= RecordingService.FLAGS_BINARY;
+                }
+                if (checkSingleFile.isChecked()) {
+                    flags |= RecordingService.FLAGS_CONTAINER;
+                }
+                if (checkCompressed.isChecked()) {
+                    flags |= RecordingService.FLAGS_COMPRESSED;
+                }
+                if (checkRawAirspeed.isChecked()) {
+                    flags |= RecordingService.FLAGS_RAW_AIRSPEED;
+                }
+                if (checkPreallocate.isChecked()) {
+                    flags |= RecordingService.FLAGS_PREALLOCATE;
+                }
                 recordService.recordStart(flags);
+                metrics = recordService.getMetrics();
                 buttonStart.setEnabled(false);
                 buttonStop.setEnabled(true);
+                buttonZero.setEnabled(true);
                 checkLocation.setEnabled(false);
                 checkPressure.setEnabled(false);
+                checkBatchPressure.setEnabled(false);
                 checkAirspeed.setEnabled(false);
+                checkBinary.setEnabled(false);
+                checkSingleFile.setEnabled(false);
+                checkCompressed.setEnabled(false);
+                checkRawAirspeed.setEnabled(false);
+                checkPreallocate.setEnabled(false);
+                buttonLineCoding.setEnabled(false);
                 editFileName.setEnabled(false);
             }
         }
@@ -139,6 +264,12 @@ public class MainActivity extends AppCompatActivity {
             }
             checkLocation.setEnabled(true);
             checkPressure.setEnabled(hasBarometer);
+            checkBatchPressure.setEnabled(hasBarometer);
+            checkBinary.setEnabled(true);
+            checkSingleFile.setEnabled(true);
+            checkCompressed.setEnabled(true);
+            checkRawAirspeed.setEnabled(true);
+            checkPreallocate.setEnabled(true);
             if (airspeedSensorConnected()) {
                 checkAirspeed.setEnabled(true);
             } else {
@@ -150,12 +281,49 @@ public class MainActivity extends AppCompatActivity {
             stopService(intent);
 
             buttonStop.setEnabled(false);
+            buttonZero.setEnabled(false);
             buttonStart.setEnabled(true);
             editFileName.setEnabled(true);
             newFileName();
         }
     }
 
+    /**
+     * Takes the current airspeed reading as zero; only accepted on the ground
+     */
+    class ZeroButtonListener implements View.OnClickListener {
+        @Override
+        public void onClick(View view) {
+            if (recordService != null && !recordService.captureAirspeedZero()) {
+                Log.w(TAG, "airspeed zero not captured");
+            }
+        }
+    }
+
+    /**
+     * Steps the serial settings of the last selected sensor through
+     * LineCoding.CHOICES; they must match the rate of the sensor firmware
+     */
+    class LineCodingButtonListener implements View.OnClickListener {
+        @Override
+        public void onClick(View view) {
+            if (recordService == null || airspeedDevices.isEmpty()) {
+                return;
+            }
+            UsbDevice device = airspeedDevices.get(airspeedDevices.size() - 1);
+            LineCoding coding = recordService.loadLineCoding(device);
+            int next = 0;
+            int i;
+            for (i = 0; i < LineCoding.CHOICES.length; i += 1) {
+                if (LineCoding.CHOICES[i].equals(coding)) {
+                    next = (i + 1) % LineCoding.CHOICES.length;
+                }
+            }
+            recordService.saveLineCoding(device, LineCoding.CHOICES[next]);
+            updateDeviceInfo();
+        }
+    }
+
     class SelectDeviceButtonListener implements View.OnClickListener {
         @Override
         public void onClick(View view) {
@@ -204,13 +372,23 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
 
         viewDeviceInfo = findViewById(R.id.device_info);
+        viewStatus = findViewById(R.id.status);
+        viewFlight = findViewById(R.id.flight);
         editFileName = findViewById(R.id.filename);
         checkLocation = findViewById(R.id.log_position);
         checkPressure = findViewById(R.id.log_pressure);
+        checkBatchPressure = findViewById(R.id.batch_pressure);
         checkAirspeed = findViewById(R.id.log_airspeed);
+        checkBinary = findViewById(R.id.log_binary);
+        checkSingleFile = findViewById(R.id.log_single_file);
+        checkCompressed = findViewById(R.id.log_compressed);
+        checkRawAirspeed = findViewById(R.id.log_raw);
+        checkPreallocate = findViewById(R.id.preallocate);
         buttonStart = findViewById(R.id.start);
         buttonStop = findViewById(R.id.stop);
+        buttonZero = findViewById(R.id.zero_airspeed);
         buttonSelectDevice = findViewById(R.id.select_device);
+        buttonLineCoding = findViewById(R.id.line_coding);
 
         newFileName();
 
@@ -220,9 +398,12 @@ public class MainActivity extends AppCompatActivity {
             if (sensor == null) {
                 checkPressure.setChecked(false);
                 checkPressure.setEnabled(false);
+                checkBatchPressure.setChecked(false);
+                checkBatchPressure.setEnabled(false);
             } else {
                 hasBarometer = true;
                 checkPressure.setChecked(true);
+                checkBatchPressure.setChecked(true);
             }
         }
 
@@ -235,6 +416,10 @@ public class MainActivity extends AppCompatActivity {
             checkAirspeed.setEnabled(false);
         }
 
+        if (checkPreallocate != null) {
+            checkPreallocate.setChecked(true);
+        }
+
         if (buttonStart != null) {
             buttonStart.setEnabled(false);
         }
@@ -252,10 +437,20 @@ public class MainActivity extends AppCompatActivity {
             buttonStop.setOnClickListener(new StopButtonListener());
         }
 
+        if (buttonZero != null) {
+            buttonZero.setEnabled(false);
+            buttonZero.setOnClickListener(new ZeroButtonListener());
+        }
+
         if (buttonSelectDevice != null) {
             buttonSelectDevice.setOnClickListener(new SelectDeviceButtonListener());
         }
 
+        if (buttonLineCoding != null) {
+            buttonLineCoding.setEnabled(false);
+            buttonLineCoding.setOnClickListener(new LineCodingButtonListener());
+        }
+
         connection = new TrackRecordingServiceConnection();
     }
 
@@ -267,11 +462,15 @@ public class MainActivity extends AppCompatActivity {
             Intent intent = new Intent(MainActivity.this, RecordingService.class);
             bindService(intent, connection, BIND_AUTO_CREATE);
         }
+        handler.post(statusUpdater);
+        handler.post(flightDisplay);
     }
 
     @Override
     public void onPause() {
         super.onPause();
+        handler.removeCallbacks(statusUpdater);
+        handler.removeCallbacks(flightDisplay);
 //        unbindService(connection);
     }
 
@@ -298,14 +497,21 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
-        if (data == null) {
-            deviceAirSpeed = null;
-        } else {
-            deviceAirSpeed = data.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+        /*
+         * Each selection adds a sensor, going back without one clears the list
+         */
+        UsbDevice device = null;
+        if (data != null) {
+            device = data.getParcelableExtra(UsbManager.EXTRA_DEVICE);
+        }
+        if (device == null) {
+            airspeedDevices.clear();
+        } else if (!airspeedDevices.contains(device)) {
+            airspeedDevices.add(device);
         }
         updateDeviceInfo();
 
-        if (deviceAirSpeed == null) {
+        if (airspeedDevices.isEmpty()) {
             checkAirspeed.setEnabled(false);
             checkAirspeed.setChecked(false);
         } else {
@@ -322,24 +528,41 @@ public class MainActivity extends AppCompatActivity {
         String stringInfo = new String();
 
         if (airspeedSensorConnected()) {
-            stringInfo += String.format("%04X", deviceAirSpeed.getVendorId());
-            stringInfo += ":";
-            stringInfo += String.format("%04X", deviceAirSpeed.getDeviceId());
-            stringInfo += "\n";
-            stringInfo += deviceAirSpeed.getProductName();
+            for (UsbDevice device : airspeedDevices) {
+                if (!stringInfo.isEmpty()) {
+                    stringInfo += "\n";
+                }
+                stringInfo += String.format("%04X", device.getVendorId());
+                stringInfo += ":";
+                stringInfo += String.format("%04X", device.getDeviceId());
+                stringInfo += "\n";
+                stringInfo += device.getProductName();
+                if (recordService != null) {
+                    stringInfo += " " + recordService.loadLineCoding(device).format();
+                }
+            }
         }
 
         viewDeviceInfo.setText(stringInfo);
+        if (buttonLineCoding != null) {
+            boolean recording = recordService != null && recordService.isRecording();
+            buttonLineCoding.setEnabled(!airspeedDevices.isEmpty() && recordService != null && !recording);
+        }
     }
 
     private boolean airspeedSensorConnected() {
-        if (deviceAirSpeed == null) {
+        if (airspeedDevices.isEmpty()) {
             return false;
         }
 
         UsbManager manager = (UsbManager) getSystemService(Context.USB_SERVICE);
         HashMap<String, UsbDevice> deviceList = manager.getDeviceList();
 
-        return deviceList.containsValue(deviceAirSpeed);
+        for (UsbDevice device : airspeedDevices) {
+            if (!deviceList.containsValue(device)) {
+                return false;
+            }
+        }
+        return true;
     }
 }
@@ -0,0 +1,270 @@
+package info.altimeter.flightrecorder;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Log file written through a memory mapping, in preallocated segments.
+ *
+ * The file grows a segment at a time instead of with every write, and the data
+ * is in the page cache as soon as it is copied, so it survives the process being
+ * killed. Every flush() stores the number of valid bytes in a small sidecar file
+ * (the log name plus COMMIT_SUFFIX); close() truncates the log to that length
+ * and removes the sidecar. A log that still has its sidecar was not closed, and
+ * recover() cuts it back to the last committed length.
+ */
+public class MappedLogFile extends OutputStream {
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+    public static final String COMMIT_SUFFIX = ".commit";
+    static final byte[] MAGIC = {'F', 'R', 'C', 'L'};
+    static final int COMMIT_SIZE = 20;
+
+    /**
+     * Reserves disk space for a segment
+     */
+    public interface Allocator {
+        void allocate(FileDescriptor fd, long offset, long length) throws IOException;
+    }
+
+    /**
+     * Leaves it to map(), which only sets the file length; whether blocks get
+     * reserved then depends on the file system
+     */
+    public static final Allocator EXTEND = new Allocator() {
+        @Override
+        public void allocate(FileDescriptor fd, long offset, long length) {
+            // map() extends the file
+        }
+    };
+
+    final File file;
+    final File commitFile;
+    final RandomAccessFile raf;
+    final FileChannel channel;
+    final RandomAccessFile commitRaf;
+    final ByteBuffer commitBuffer = ByteBuffer.allocate(COMMIT_SIZE);
+    final int segmentSize;
+    final Allocator allocator;
+    MappedByteBuffer segment = null;
+    long segmentStart = 0;
+    long length = 0;
+    long committed = -1;
+    boolean closed = false;
+
+    public MappedLogFile(File file) throws IOException {
+        this(file, DEFAULT_SEGMENT_SIZE, EXTEND);
+    }
+
+    public MappedLogFile(File file, int segmentSize, Allocator allocator) throws IOException {
+        this.file = file;
+        this.segmentSize = segmentSize;
+        this.allocator = allocator;
+        commitFile = commitFile(file);
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        commitRaf = new RandomAccessFile(commitFile, "rw");
+        raf.setLength(0);
+        commit();
+    }
+
+    static File commitFile(File file) {
+        return new File(file.getPath() + COMMIT_SUFFIX);
+    }
+
+    private void map(long start) throws IOException {
+        allocator.allocate(raf.getFD(), start, segmentSize);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, start, segmentSize);
+        segmentStart = start;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (closed) {
+            throw new IOException("file closed");
+        }
+        if (segment == null || !segment.hasRemaining()) {
+            map(length);
+        }
+        segment.put((byte) b);
+        length += 1;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("file closed");
+        }
+        while (len > 0) {
+            if (segment == null || !segment.hasRemaining()) {
+                map(length);
+            }
+            int n = Math.min(len, segment.remaining());
+            segment.put(b, off, n);
+            off += n;
+            len -= n;
+            length += n;
+        }
+    }
+
+    /**
+     * Records the bytes written so far as valid
+     */
+    @Override
+    public void flush() throws IOException {
+        commit();
+    }
+
+    private void commit() throws IOException {
+        if (length == committed) {
+            return;
+        }
+        commitBuffer.clear();
+        commitBuffer.put(MAGIC);
+        commitBuffer.putLong(length);
+        commitBuffer.putLong(~length);
+        commitBuffer.flip();
+        commitRaf.getChannel().write(commitBuffer, 0);
+        committed = length;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Cuts the file to the bytes written and removes the sidecar
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        segment = null;
+        try {
+            commit();
+            channel.truncate(length);
+        } finally {
+            raf.close();
+            commitRaf.close();
+        }
+        if (!commitFile.delete()) {
+            throw new IOException("failed to delete " + commitFile);
+        }
+    }
+
+    /**
+     * Reads the committed length from the sidecar of a log
+     *
+     * @return -1 if there is no valid sidecar
+     */
+    static long readCommitted(File file) throws IOException {
+        File commitFile = commitFile(file);
+        if (!commitFile.exists()) {
+            return -1;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(commitFile, "r");
+        try {
+            if (raf.length() < COMMIT_SIZE) {
+                return -1;
+            }
+            byte[] magic = new byte[MAGIC.length];
+            raf.readFully(magic);
+            long length = raf.readLong();
+            long check = raf.readLong();
+            int i;
+            for (i = 0; i < MAGIC.length; i += 1) {
+                if (magic[i] != MAGIC[i]) {
+                    return -1;
+                }
+            }
+            return check == ~length ? length : -1;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Salvages a log that was not closed: truncates it to the last committed
+     * length and removes the sidecar. Without a readable length the log is
+     * cut before the zero padding of the last segment.
+     *
+     * @return length of the recovered log, -1 if it did not need recovery
+     */
+    public static long recover(File file) throws IOException {
+        File commitFile = commitFile(file);
+        if (!commitFile.exists()) {
+            return -1;
+        }
+
+        long length = readCommitted(file);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (length < 0 || length > raf.length()) {
+                length = dataEnd(raf);
+            }
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+        if (!commitFile.delete()) {
+            throw new IOException("failed to delete " + commitFile);
+        }
+        return length;
+    }
+
+    /**
+     * Offset after the last non-zero byte
+     */
+    static long dataEnd(RandomAccessFile raf) throws IOException {
+        byte[] block = new byte[64 * 1024];
+        long end = raf.length();
+
+        while (end > 0) {
+            int n = (int) Math.min(block.length, end);
+            raf.seek(end - n);
+            raf.readFully(block, 0, n);
+            int i;
+            for (i = n - 1; i >= 0; i -= 1) {
+                if (block[i] != 0) {
+                    return end - n + i + 1;
+                }
+            }
+            end -= n;
+        }
+        return 0;
+    }
+
+    /**
+     * Recovers every unclosed log in a directory
+     *
+     * @return number of logs recovered
+     */
+    public static int recoverAll(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        int count = 0;
+
+        if (files == null) {
+            return 0;
+        }
+        for (File f : files) {
+            String name = f.getPath();
+            if (name.endsWith(COMMIT_SUFFIX)) {
+                File log = new File(name.substring(0, name.length() - COMMIT_SUFFIX.length()));
+                if (!log.exists()) {
+                    f.delete();
+                } else if (recover(log) >= 0) {
+                    count += 1;
+                }
+            }
+        }
+        return count;
+    }
+}
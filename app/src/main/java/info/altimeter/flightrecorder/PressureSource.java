@@ -0,0 +1,215 @@
+package info.altimeter.flightrecorder;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener2;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Barometer readings in hPa, delivered on a dedicated thread.
+ *
+ * With a max report latency set and a sensor that has a hardware FIFO, readings
+ * are batched by the sensor hub and the CPU only wakes up to receive a whole
+ * batch. The events of one batch arrive back to back; they are collected into
+ * a block and passed on together once the burst is over, with their original
+ * timestamps.
+ */
+public class PressureSource implements SensorSource, SensorEventListener2 {
+    private static final String TAG = "PressureSource";
+    static final int SAMPLING_PERIOD_US = 40000;
+    public static final int DEFAULT_REPORT_LATENCY_US = 1000000;
+    static final long FLUSH_TIMEOUT_MS = 1000;
+
+    final SensorManager sensorManager;
+    final long[] sample = new long[LogLayout.PRESSURE.getFieldCount()];
+    final BlockWriter blockWriter = new BlockWriter();
+    Sensor sensor;
+    HandlerThread thread = null;
+    Handler handler;
+    SampleListener listener;
+    int maxReportLatency = DEFAULT_REPORT_LATENCY_US;
+    boolean batching = false;
+    CountDownLatch flushed = null;
+
+    long[] blockTimes = new long[64];
+    float[] blockValues = new float[64];
+    int blockSize = 0;
+    boolean blockPosted = false;
+
+    volatile long events = 0;
+    volatile long batches = 0;
+    volatile int largestBatch = 0;
+
+    public PressureSource(SensorManager sensorManager) {
+        this.sensorManager = sensorManager;
+    }
+
+    /**
+     * Longest time (us) readings may wait in the sensor FIFO, 0 to report each one immediately.
+     * Takes effect at the next start.
+     */
+    public void setMaxReportLatency(int us) {
+        maxReportLatency = us;
+    }
+
+    @Override
+    public LogLayout getLayout() {
+        return LogLayout.PRESSURE;
+    }
+
+    @Override
+    public boolean start(SampleListener listener) {
+        sensor = sensorManager.getDefaultSensor(Sensor.TYPE_PRESSURE);
+        if (sensor == null) {
+            return false;
+        }
+
+        this.listener = listener;
+        thread = new HandlerThread("pressure", Process.THREAD_PRIORITY_MORE_FAVORABLE);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+
+        int fifo = sensor.getFifoMaxEventCount();
+        batching = maxReportLatency > 0 && fifo > 0;
+        if (batching) {
+            int capacity = Math.max(fifo, 64);
+            blockTimes = new long[capacity];
+            blockValues = new float[capacity];
+            if (sensorManager.registerListener(this, sensor, SAMPLING_PERIOD_US,
+                    maxReportLatency, handler)) {
+                return true;
+            }
+            Log.w(TAG, "batching not accepted, reporting every reading");
+            batching = false;
+        }
+        return sensorManager.registerListener(this, sensor, SAMPLING_PERIOD_US, handler);
+    }
+
+    /**
+     * Collects what is still in the sensor FIFO, then stops
+     */
+    @Override
+    public void stop() {
+        if (batching) {
+            flushed = new CountDownLatch(1);
+            if (sensorManager.flush(this)) {
+                try {
+                    flushed.await(FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        sensorManager.unregisterListener(this);
+        if (thread != null) {
+            thread.quitSafely();
+            try {
+                thread.join(FLUSH_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            thread = null;
+        }
+    }
+
+    /**
+     * True if the sensor accepted a max report latency
+     */
+    public boolean isBatching() {
+        return batching;
+    }
+
+    public long getEventCount() {
+        return events;
+    }
+
+    /**
+     * Number of blocks passed on; equal to the event count without batching
+     */
+    public long getBatchCount() {
+        return batches;
+    }
+
+    public int getLargestBatch() {
+        return largestBatch;
+    }
+
+    public double getAverageBatch() {
+        long n = batches;
+        return n == 0 ? 0 : (double) events / n;
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        // Whatever
+    }
+
+    @Override
+    public void onFlushCompleted(Sensor sensor) {
+        writeBlock();
+        CountDownLatch latch = flushed;
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        events += 1;
+        if (!batching) {
+            sample[0] = LogLayout.real(event.values[0]);
+            listener.onSample(event.timestamp, sample);
+            batches += 1;
+            largestBatch = 1;
+            return;
+        }
+
+        if (blockSize == blockTimes.length) {
+            writeBlock();
+        }
+        blockTimes[blockSize] = event.timestamp;
+        blockValues[blockSize] = event.values[0];
+        blockSize += 1;
+
+        /*
+         * Runs after the rest of the burst has been delivered
+         */
+        if (!blockPosted) {
+            blockPosted = true;
+            handler.post(blockWriter);
+        }
+    }
+
+    class BlockWriter implements Runnable {
+        @Override
+        public void run() {
+            blockPosted = false;
+            writeBlock();
+        }
+    }
+
+    void writeBlock() {
+        int n = blockSize;
+        int i;
+
+        if (n == 0) {
+            return;
+        }
+        for (i = 0; i < n; i += 1) {
+            sample[0] = LogLayout.real(blockValues[i]);
+            listener.onSample(blockTimes[i], sample);
+        }
+        blockSize = 0;
+        batches += 1;
+        if (n > largestBatch) {
+            largestBatch = n;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package info.altimeter.flightrecorder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns LogLayout.AIRSPEED_RAW samples, the sensor frames as they were sent,
+ * into LogLayout.AIRSPEED samples with a calibration profile.
+ *
+ * Raw logs leave the output type, pressure range and zero offset to whoever
+ * reads them, so a wrong profile can be corrected after the flight. The
+ * recorder stores the profile it used in a sidecar file
+ * (CALIBRATION_SUFFIX) next to the log.
+ */
+public class RawAirspeedConverter implements SensorSource.SampleListener {
+    /**
+     * Sidecar holding AirspeedCalibration.format() of a raw log:
+     * name.airspeed.cal for name.airspeed.raw
+     */
+    public static final String CALIBRATION_SUFFIX = ".cal";
+
+    /**
+     * Name part that tells a raw channel from a converted one
+     */
+    public static final String RAW = ".raw";
+
+    final SensorSource.SampleListener target;
+    final long[] out = new long[LogLayout.AIRSPEED_COUNT + 1];
+    volatile AirspeedCalibration calibration;
+
+    /**
+     * @param target receives LogLayout.AIRSPEED samples
+     */
+    public RawAirspeedConverter(AirspeedCalibration calibration, SensorSource.SampleListener target) {
+        this.calibration = calibration.compile();
+        this.target = target;
+    }
+
+    /**
+     * Profile for the following samples, e.g. after a zero capture
+     */
+    public void setCalibration(AirspeedCalibration calibration) {
+        this.calibration = calibration.compile();
+    }
+
+    public AirspeedCalibration getCalibration() {
+        return calibration;
+    }
+
+    /**
+     * AIRSPEED_RAW field value of a frame (AirspeedFrameParser.getWord())
+     */
+    public static long sample(int word) {
+        return word & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Converts the field value of a raw sample into an AIRSPEED sample; any
+     * value outside 0..0xFFFFFFFF (LogLayout.AIRSPEED_GAP) gives a gap marker.
+     * The pressure count goes into out[LogLayout.AIRSPEED_COUNT] if out is long enough.
+     */
+    public static void convert(long word, AirspeedCalibration calibration, long[] out) {
+        int diff = -1;
+
+        if (word < 0 || word > 0xFFFFFFFFL) {
+            out[0] = LogLayout.AIRSPEED_GAP;
+            out[1] = LogLayout.real(Double.NaN);
+            out[2] = LogLayout.real(Double.NaN);
+        } else {
+            int w = (int) word;
+            diff = (w >>> 16) & 0x3FFF;
+            out[0] = w >>> 30;
+            out[1] = LogLayout.real(calibration.psi(diff));
+            out[2] = LogLayout.real(calibration.celsius((w & 0xFFFF) >> 5));
+        }
+        if (out.length > LogLayout.AIRSPEED_COUNT) {
+            out[LogLayout.AIRSPEED_COUNT] = diff;
+        }
+    }
+
+    @Override
+    public void onSample(long time, long[] values) {
+        convert(values[0], calibration, out);
+        target.onSample(time, out);
+    }
+
+    /**
+     * Elapsed time of a log line, "H:MM:SS.mmm" (LogFormatter.appendTime()), in ns
+     *
+     * @throws NumberFormatException if the text is not a time
+     */
+    static long parseTime(String text) {
+        int colon = text.indexOf(':');
+        int colon2 = text.indexOf(':', colon + 1);
+        int dot = text.indexOf('.', colon2 + 1);
+        if (colon < 0 || colon2 < 0 || dot < 0) {
+            throw new NumberFormatException("bad time \"" + text + "\"");
+        }
+        long h = Long.parseLong(text.substring(0, colon));
+        long m = Long.parseLong(text.substring(colon + 1, colon2));
+        long s = Long.parseLong(text.substring(colon2 + 1, dot));
+        long ms = Long.parseLong(text.substring(dot + 1));
+        return (((h * 60 + m) * 60 + s) * 1000 + ms) * 1000000;
+    }
+
+    /**
+     * Converts a raw text log into the text of an AIRSPEED log
+     *
+     * @return number of samples converted
+     */
+    public static long convertText(InputStream in, OutputStream out, AirspeedCalibration calibration)
+            throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+        LogFormatter line = new LogFormatter(64 * 1024);
+        long[] sample = new long[LogLayout.AIRSPEED.getFieldCount()];
+        long count = 0;
+        String text;
+
+        calibration.compile();
+        try {
+            while ((text = reader.readLine()) != null) {
+                String[] parts = text.trim().split("\\s+");
+                if (parts.length != 2) {
+                    continue;
+                }
+                convert(Long.parseLong(parts[1]), calibration, sample);
+                LogLayout.AIRSPEED.format(line, parseTime(parts[0]), sample);
+                if (line.length() >= 60 * 1024) {
+                    line.writeTo(out);
+                    line.reset();
+                }
+                count += 1;
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("not a raw airspeed log", e);
+        }
+        line.writeTo(out);
+        return count;
+    }
+}
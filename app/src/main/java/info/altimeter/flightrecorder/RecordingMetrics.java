@@ -0,0 +1,103 @@
+package info.altimeter.flightrecorder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Health of a recording: per-channel sample rate, interval jitter, write latency,
+ * drops and errors, plus counters contributed by the sensors.
+ *
+ * The values are collected by LogSink.Channel and the sources themselves; this
+ * class only knows where to find them and how to report them.
+ */
+public class RecordingMetrics {
+    public interface Counter {
+        long get();
+    }
+
+    static class Entry {
+        final LogSink.Channel channel;
+        final long expectedPeriod;
+
+        Entry(LogSink.Channel channel, long expectedPeriod) {
+            this.channel = channel;
+            this.expectedPeriod = expectedPeriod;
+        }
+    }
+
+    static class NamedCounter {
+        final String name;
+        final Counter counter;
+
+        NamedCounter(String name, Counter counter) {
+            this.name = name;
+            this.counter = counter;
+        }
+    }
+
+    final CopyOnWriteArrayList<Entry> channels = new CopyOnWriteArrayList<>();
+    final CopyOnWriteArrayList<NamedCounter> counters = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param expectedPeriod requested sampling period (ns), 0 if the source sets its own pace
+     */
+    public void addChannel(LogSink.Channel channel, long expectedPeriod) {
+        channels.add(new Entry(channel, expectedPeriod));
+    }
+
+    public void addCounter(String name, Counter counter) {
+        counters.add(new NamedCounter(name, counter));
+    }
+
+    /**
+     * Human-readable summary, one block per channel
+     */
+    public String report() {
+        StringBuilder text = new StringBuilder();
+
+        for (Entry entry : channels) {
+            LogSink.Channel channel = entry.channel;
+            LatencyHistogram intervals = channel.getIntervals();
+
+            text.append(String.format(Locale.US, "%s: %d samples, %.2f/s",
+                    channel.getName(), channel.getSamplesReceived(), channel.getSampleRate()));
+            if (entry.expectedPeriod > 0) {
+                text.append(String.format(Locale.US, " (requested %.2f/s)", 1e9 / entry.expectedPeriod));
+            }
+            text.append('\n');
+            text.append(String.format(Locale.US, "  interval %s, jitter %.3f ms\n",
+                    intervals, intervals.getStdDev() / 1e6));
+            text.append(String.format(Locale.US, "  latency %s\n", channel.getLatency()));
+            text.append(String.format(Locale.US, "  written %d, dropped %d, backpressure %d, write errors %d\n",
+                    channel.getSamplesWritten(), channel.getDropped(),
+                    channel.getBackpressureEvents(), channel.getWriteErrors()));
+        }
+
+        for (NamedCounter counter : counters) {
+            text.append(String.format(Locale.US, "%s: %d\n", counter.name, counter.counter.get()));
+        }
+
+        return text.toString();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(report().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Writes the report next to the log files
+     */
+    public void writeTo(File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            writeTo(out);
+        } finally {
+            out.close();
+        }
+    }
+}
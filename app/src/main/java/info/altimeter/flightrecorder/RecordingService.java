@@ -8,33 +8,31 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.hardware.usb.UsbDevice;
-import android.location.Location;
-import android.location.LocationListener;
 import android.location.LocationManager;
 import android.media.AudioAttributes;
 import android.media.MediaScannerConnection;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
-import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.Process;
+import android.os.Looper;
 import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.util.Log;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Locale;
 
@@ -46,40 +44,80 @@ import static android.Manifest.permission.ACCESS_FINE_LOCATION;
 public class RecordingService extends Service {
     private static final String TAG = "RecordingService";
     private static final String CHANNEL_ID = "Channel 9";
-    LocationManager locationManager;
-    RecorderLocationListener locationListener;
-    PressureListener pressureListener;
-    AirSpeedSensor speedSensor;
-    UsbDevice device;
+    LocationSource locationSource;
+    PressureSource pressureSource;
+    final ArrayList<AirspeedSource> airspeedSources = new ArrayList<>();
+    final ArrayList<UsbDevice> devices = new ArrayList<>();
+    final ArrayList<AirspeedCalibration> calibrations = new ArrayList<>();
+    final ArrayList<LineCoding> lineCodings = new ArrayList<>();
+    final ArrayList<RawAirspeedConverter> converters = new ArrayList<>();
+    int pressureReportLatency = PressureSource.DEFAULT_REPORT_LATENCY_US;
     String logFileName = "default";
     boolean locationEnabled = false;
     boolean pressureEnabled = false;
     boolean airspeedEnabled = false;
+    boolean binaryEnabled = false;
+    boolean containerEnabled = false;
+    boolean compressEnabled = false;
+    boolean rawAirspeedEnabled = false;
+    boolean preallocate = true;
+    long segmentBytes = LogSegments.DEFAULT_MAX_BYTES;
+    long segmentDuration = LogSegments.DEFAULT_MAX_DURATION;
     File locationLog;
     File pressureLog;
-    File airspeedLog;
-    FileOutputStream locationStream;
-    FileOutputStream pressureStream;
-    FileOutputStream airspeedStream;
-    OutputStreamWriter locationWriter;
-    OutputStreamWriter pressureWriter;
-    OutputStreamWriter airspeedWriter;
-    HandlerThread pressureThread;
-    Handler pressureHandler;
+    final ArrayList<File> calibrationLogs = new ArrayList<>();
+    File containerLog;
+    File metricsLog;
+    File timebaseLog;
+    File phaseLog;
+    final ArrayList<File> tierLogs = new ArrayList<>();
+    final ArrayList<Decimator> decimators = new ArrayList<>();
+    final ArrayList<LogSegments> segmentLogs = new ArrayList<>();
+    RecordingMetrics metrics = new RecordingMetrics();
+    Timebase timebase;
+    FlightComputer flightComputer;
+    final Handler handler = new Handler(Looper.getMainLooper());
+    LogSink sink;
+    LogSink.Container container;
+    LogSink.Channel locationChannel;
+    LogSink.Channel pressureChannel;
     boolean recording = false;
     private final IBinder mBinder = new TrackRecordingServiceBinder();
-    SensorManager sensorManager;
-    Sensor sensor;
     NotificationManager notificationManager;
     NotificationCompat.Builder mBuilder;
     int notifyID = 1;
     boolean foregroundState = false;
-    long number = 0;
     long startTime = 0;
 
     public static final int FLAGS_LOCATION = (1 << 0);
     public static final int FLAGS_PRESSURE = (1 << 1);
     public static final int FLAGS_AIRSPEED = (1 << 2);
+    public static final int FLAGS_BINARY = (1 << 3);
+    public static final int FLAGS_CONTAINER = (1 << 4);
+    public static final int FLAGS_COMPRESSED = (1 << 5);
+    public static final int FLAGS_RAW_AIRSPEED = (1 << 6);
+    public static final int FLAGS_BATCH_PRESSURE = (1 << 7);
+    public static final int FLAGS_PREALLOCATE = (1 << 8);
+
+    /**
+     * Longest plausible delivery delays (ns); a larger difference between a
+     * sample stamp and its arrival is taken as a clock offset, see Timebase
+     */
+    static final long SENSOR_MAX_LATENCY = 1000000000L;
+    static final long LOCATION_MAX_LATENCY = 5000000000L;
+
+    static final String CALIBRATION_PREFS = "airspeed_calibration";
+    static final String LINE_CODING_PREFS = "airspeed_line_coding";
+
+    /**
+     * Frames averaged for an airspeed zero, 10 s at 25 frames/s
+     */
+    static final int ZERO_FRAMES = 250;
+
+    /**
+     * Bucket lengths of the decimated tiers written next to each raw log
+     */
+    static final long[] TIER_INTERVALS = {Decimator.SECOND, 10 * Decimator.SECOND};
 
     @Override
     public IBinder onBind(Intent intent) {
@@ -117,6 +155,7 @@ public class RecordingService extends Service {
     public void onDestroy() {
         if (recording) {
             Log.e(TAG, "service killed while recording");
+            recordStop();
         }
     }
 
@@ -158,178 +197,449 @@ public class RecordingService extends Service {
         RecordingService getService() {
             return RecordingService.this;
         }
+
+        RecordingMetrics getMetrics() {
+            return metrics;
+        }
+    }
+
+    void notifyHost() {
+        ArrayList<String> nameList = new ArrayList<>();
+        for (LogSegments segments : segmentLogs) {
+            int i;
+            for (i = 0; i < segments.getSegmentCount(); i += 1) {
+                nameList.add(segments.getFile(i).toString());
+            }
+        }
+        if (metricsLog != null) {
+            nameList.add(metricsLog.toString());
+        }
+        if (timebaseLog != null) {
+            nameList.add(timebaseLog.toString());
+        }
+        if (phaseLog != null) {
+            nameList.add(phaseLog.toString());
+        }
+        for (File file : tierLogs) {
+            nameList.add(file.toString());
+        }
+        for (File file : calibrationLogs) {
+            nameList.add(file.toString());
+        }
+        String[] names = new String[nameList.size()];
+        nameList.toArray(names);
+        MediaScannerConnection.scanFile(this, names, null, null);
     }
 
-    private String logTime() {
-        long now = SystemClock.elapsedRealtimeNanos();
-        return logTime(now);
+    /**
+     * Records a single airspeed sensor, none if device is null
+     */
+    public void setAirspeedDevice(UsbDevice device) {
+        devices.clear();
+        calibrations.clear();
+        lineCodings.clear();
+        if (device != null) {
+            addAirspeedDevice(device);
+        }
     }
 
-    private String logTime(long eventTime) {
-        long ns = eventTime - startTime;
-        long ms = ns / 1000000;
-        long s = ms / 1000;
-        ms %= 1000;
-        long m = s / 60;
-        s %= 60;
-        long h = m / 60;
-        m %= 60;
-        return String.format(Locale.US, "%4d:%02d:%02d.%03d", h, m, s, ms);
+    /**
+     * Adds a sensor with its stored calibration profile
+     */
+    public void addAirspeedDevice(UsbDevice device) {
+        addAirspeedDevice(device, loadCalibration(device));
     }
 
-    class RecorderAirspeedListener implements AirSpeedSensor.AirSpeedListener {
-        @Override
-        public void onSpeedReading(int stat, float diff, float temp_c) {
-            if (airspeedWriter == null) {
-                return;
-            }
-            String str = logTime();
-            str += String.format(Locale.US, "%d %+8.4f %+5.1f\n", stat, diff, temp_c);
+    /**
+     * Adds a sensor to record at the next start, with its stored line coding.
+     * The first one is logged as "airspeed" and drives the live air data,
+     * further ones as "airspeed2" etc.
+     */
+    public void addAirspeedDevice(UsbDevice device, AirspeedCalibration calibration) {
+        devices.add(device);
+        calibrations.add(calibration);
+        lineCodings.add(loadLineCoding(device));
+    }
+
+    /**
+     * Serial settings chosen for a sensor, LineCoding.DEFAULT if there are none
+     */
+    public LineCoding loadLineCoding(UsbDevice device) {
+        SharedPreferences prefs = getSharedPreferences(LINE_CODING_PREFS, MODE_PRIVATE);
+        String text = prefs.getString(AirspeedSource.deviceKey(device), null);
+        if (text != null) {
             try {
-                airspeedWriter.write(str);
-            } catch (IOException e) {
-                Log.e(TAG, "error writing airspeed log", e);
+                return LineCoding.parse(text);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "ignoring stored line coding", e);
             }
         }
+        return LineCoding.DEFAULT;
+    }
 
-        @Override
-        public void onDisconnect() {
-            Log.e(TAG, "airspeed sensor disconnected");
-            if (airspeedWriter == null) {
-                return;
-            }
+    /**
+     * Stores the serial settings of a sensor, used from the next start
+     */
+    public void saveLineCoding(UsbDevice device, LineCoding coding) {
+        getSharedPreferences(LINE_CODING_PREFS, MODE_PRIVATE).edit()
+                .putString(AirspeedSource.deviceKey(device), coding.format())
+                .apply();
+    }
+
+    /**
+     * Calibration profile stored for a sensor, the default TYPE_A 1 psi profile if there is none
+     */
+    public AirspeedCalibration loadCalibration(UsbDevice device) {
+        SharedPreferences prefs = getSharedPreferences(CALIBRATION_PREFS, MODE_PRIVATE);
+        String text = prefs.getString(AirspeedSource.deviceKey(device), null);
+        if (text != null) {
             try {
-                airspeedWriter.flush();
-            } catch (IOException e) {
-                Log.e(TAG, "error flushing airspeed log", e);
+                return AirspeedCalibration.parse(text);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "ignoring stored airspeed calibration", e);
             }
         }
+        return new AirspeedCalibration();
     }
 
-    class RecorderLocationListener implements LocationListener {
+    public void saveCalibration(UsbDevice device, AirspeedCalibration calibration) {
+        getSharedPreferences(CALIBRATION_PREFS, MODE_PRIVATE).edit()
+                .putString(AirspeedSource.deviceKey(device), calibration.format())
+                .apply();
+    }
 
-        @Override
-        public void onLocationChanged(Location location) {
-            long t;
-            String str;
-
-            t = location.getElapsedRealtimeNanos();
-            str = logTime(t);
-
-            str += " ";
-            str += String.format(Locale.US, "%+11.6f", location.getLongitude());
-            str += " ";
-            str += String.format(Locale.US, "%+11.6f", location.getLatitude());
-            str += " ";
-            str += String.format(Locale.US, "%11.6f", location.getAccuracy());
-
-            str += " ";
-            str += String.format(Locale.US, "%+7.1f", location.getAltitude());
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                str += " ";
-                float std = location.getVerticalAccuracyMeters();
-                str += String.format(Locale.US, "%7.3f", std);
-            }
+    /**
+     * Measures the zero offset of every airspeed sensor over the next
+     * ZERO_FRAMES frames and stores it in the sensor profiles. Refused unless
+     * the aircraft is idle on the ground.
+     */
+    public boolean captureAirspeedZero() {
+        if (!recording || airspeedSources.isEmpty()) {
+            return false;
+        }
+        FlightData data = new FlightData();
+        flightComputer.read(data);
+        if (data.getPhase() != FlightPhase.GROUND_IDLE) {
+            Log.w(TAG, "airspeed zero refused in phase " + FlightPhase.name(data.getPhase()));
+            return false;
+        }
+        boolean started = false;
+        int i;
+        for (i = 0; i < airspeedSources.size(); i += 1) {
+            final AirspeedSource source = airspeedSources.get(i);
+            final boolean primary = i == 0;
+            final RawAirspeedConverter converter = converters.get(i);
+            started |= source.captureZero(ZERO_FRAMES, new AirSpeedSensor.ZeroListener() {
+                @Override
+                public void onZero(AirspeedCalibration calibration) {
+                    saveCalibration(source.getDevice(), calibration);
+                    if (converter != null) {
+                        converter.setCalibration(calibration);
+                    }
+                    if (primary) {
+                        flightComputer.setAirspeedCalibration(calibration);
+                    }
+                }
+            });
+        }
+        return started;
+    }
 
-            /*
-             * Log ground speed, with uncertainty
-             */
-            str += " ";
-            str += String.format(Locale.US, "%7.3f", location.getSpeed());
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                str += " ";
-                float std = location.getSpeedAccuracyMetersPerSecond();
-                str += String.format(Locale.US, "%7.3f", std);
-            }
-            str += "\n";
+    public void setLogFilename(String filename) {
+        this.logFileName = filename;
+    }
 
-            if (locationStream != null) {
-                try {
-                    locationStream.write(str.getBytes());
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
 
-            number += 1;
-        }
+    /**
+     * Start a new file when a log reaches the given size or time span, 0 for no limit
+     */
+    void setSegmentLimits(long bytes, long ns) {
+        segmentBytes = bytes;
+        segmentDuration = ns;
+    }
 
-        @Override
-        public void onProviderDisabled(String provider) {
-            // OK
+    /**
+     * Health of the current or last recording
+     */
+    public RecordingMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Live air data of the current or last recording, null before the first one
+     */
+    public FlightComputer getFlightComputer() {
+        return flightComputer;
+    }
+
+    public UsbDevice getAirspeedDevice() {
+        return devices.isEmpty() ? null : devices.get(0);
+    }
+
+    public ArrayList<UsbDevice> getAirspeedDevices() {
+        return devices;
+    }
+
+    File logFile(File dir, LogLayout layout) {
+        if (container != null) {
+            return containerLog;
         }
+        String suffix = binaryEnabled ? ".bin" : ".log";
+        return new File(dir, logFileName + "." + layout.getName() + suffix + compressSuffix());
+    }
 
+    String compressSuffix() {
+        return compressEnabled ? CompressedLogStream.SUFFIX : "";
+    }
+
+    /**
+     * The elapsed realtime clock, which all sample times are on
+     */
+    static final LogSink.Clock ELAPSED_REALTIME = new LogSink.Clock() {
         @Override
-        public void onProviderEnabled(String provider) {
-            // OK
+        public long now() {
+            return SystemClock.elapsedRealtimeNanos();
         }
+    };
 
+    /**
+     * Reserves real disk blocks for each segment of a mapped log
+     */
+    static final MappedLogFile.Allocator FALLOCATE = new MappedLogFile.Allocator() {
         @Override
-        public void onStatusChanged(String provider, int status, Bundle extras) {
-            // OK
+        public void allocate(FileDescriptor fd, long offset, long length) {
+            try {
+                Os.posix_fallocate(fd, offset, length);
+            } catch (ErrnoException e) {
+                // Not supported by the file system, the mapping extends the file
+            }
         }
-    }
-
-    private class PressureListener implements SensorEventListener {
+    };
 
-        public void onAccuracyChanged(Sensor sensor, int accuracy) {
-            // Whatever
+    OutputStream openStream(File file) throws FileNotFoundException {
+        if (preallocate) {
+            try {
+                return new MappedLogFile(file, MappedLogFile.DEFAULT_SEGMENT_SIZE, FALLOCATE);
+            } catch (IOException e) {
+                Log.w(TAG, "failed to map " + file + ", using plain writes", e);
+            }
         }
+        return new FileOutputStream(file);
+    }
 
-        public void onSensorChanged(SensorEvent event) {
-            String str;
-            float p;
-
-            str = logTime(event.timestamp);
-            p = event.values[0];
-            str += String.format(Locale.US, " %7.3f\n", p);
-            if (pressureStream != null) {
-                try {
-                    pressureStream.write(str.getBytes());
-                } catch (IOException e) {
-                    e.printStackTrace();
+    /**
+     * Segments of the log at dir/logFileName.name + suffix, deflated in blocks
+     * if compression is enabled
+     */
+    LogSegments openSegments(File dir, String name, String suffix) {
+        String prefix = new File(dir, logFileName + "." + name).getPath();
+        LogSegments segments = new LogSegments(prefix, suffix + compressSuffix(), startTime);
+        segmentLogs.add(segments);
+        segments.setMaxBytes(segmentBytes);
+        segments.setMaxDuration(segmentDuration);
+        segments.setOpener(new LogSegments.Opener() {
+            @Override
+            public OutputStream open(File file) throws IOException {
+                OutputStream out = openStream(file);
+                if (compressEnabled) {
+                    return new CompressedLogStream(out, startTime);
                 }
+                return out;
             }
-        }
+        });
+        return segments;
     }
 
-    void notifyHost() {
-        ArrayList<String> nameList = new ArrayList<>();
-        if (locationLog != null) {
-            nameList.add(locationLog.toString());
+    LogSink.Channel openChannel(LogLayout layout, File file) throws IOException {
+        return openChannel(layout, file, LogSink.DEFAULT_CAPACITY);
+    }
+
+    LogSink.Channel openChannel(LogLayout layout, File file, int capacity) throws IOException {
+        if (container != null) {
+            return container.addChannel(layout, capacity);
         }
-        if (pressureLog != null) {
-            nameList.add(pressureLog.toString());
+        LogSegments segments = openSegments(file.getParentFile(), layout.getName(),
+                binaryEnabled ? ".bin" : ".log");
+        if (!binaryEnabled && !compressEnabled) {
+            segments.setTimeIndex(TimeIndex.DEFAULT_INTERVAL);
         }
-        if (airspeedLog != null) {
-            nameList.add(airspeedLog.toString());
+        LogSink.Encoder encoder = null;
+        if (binaryEnabled) {
+            encoder = new BinaryLogWriter(startTime).channel(0, layout);
         }
-        String[] names = new String[nameList.size()];
-        nameList.toArray(names);
-        MediaScannerConnection.scanFile(this, names, null, null);
+        return sink.addChannel(layout, segments, encoder, capacity);
     }
 
-    public void setAirspeedDevice(UsbDevice device) {
-        this.device = device;
+    /**
+     * Adds the decimated tiers of a channel as plain text logs
+     * dir/logFileName.name.1s.log etc. and returns target, which may be null,
+     * with the tiers attached
+     */
+    SensorSource.SampleListener addTiers(File dir, LogLayout layout, SensorSource.SampleListener target) {
+        for (long interval : TIER_INTERVALS) {
+            LogLayout tier = layout.decimated(Decimator.suffix(interval));
+            File file = new File(dir, logFileName + "." + tier.getName() + ".log");
+            try {
+                LogSink.Channel channel = sink.addChannel(tier, new FileOutputStream(file));
+                Decimator decimator = new Decimator(layout, startTime, interval, channel);
+                decimators.add(decimator);
+                tierLogs.add(file);
+                target = target == null ? decimator : new SensorSource.Tee(target, decimator);
+            } catch (FileNotFoundException e) {
+                Log.e(TAG, "failed to create " + file, e);
+            }
+        }
+        return target;
     }
 
-    public void setLogFilename(String filename) {
-        this.logFileName = filename;
+    /**
+     * Logs a phase change and applies its GNSS policy on the main thread,
+     * which registered the location updates
+     */
+    final FlightPhase.Listener phaseListener = new FlightPhase.Listener() {
+        @Override
+        public void onPhaseChange(long time, final int phase) {
+            Log.i(TAG, String.format(Locale.US, "%.1f s: %s, GNSS every %d ms / %.0f m",
+                    (time - startTime) / 1e9, FlightPhase.name(phase),
+                    FlightPhase.gnssInterval(phase), FlightPhase.gnssDistance(phase)));
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!recording || locationSource == null) {
+                        return;
+                    }
+                    if (!locationSource.setUpdates(FlightPhase.gnssInterval(phase),
+                            FlightPhase.gnssDistance(phase))) {
+                        Log.w(TAG, "failed to change location update rate");
+                    }
+                }
+            });
+        }
+    };
+
+    /**
+     * Ring size for the airspeed channel, enough for two seconds at the full line rate,
+     * which covers the writer's flush interval and the container reorder window
+     */
+    int airspeedCapacity(LineCoding coding) {
+        int rate = coding.maxFrameRate(AirspeedFrameParser.FRAME_SIZE);
+        return Math.max(LogSink.DEFAULT_CAPACITY, 2 * rate);
     }
 
-    public UsbDevice getAirspeedDevice() {
-        return this.device;
+    /**
+     * Opens the log of airspeed sensor index and starts reading it on its own
+     * thread, so that a stalled device does not hold up the others. In raw mode
+     * the log gets the frames as sent (logFileName.airspeed.raw) and the
+     * calibration profile in use at the end goes to logFileName.airspeed.cal;
+     * the flight computer and the decimated tiers still see converted readings.
+     */
+    void startAirspeed(File dir, int index) {
+        UsbDevice device = index < devices.size() ? devices.get(index) : null;
+        LogLayout converted = LogLayout.AIRSPEED;
+        if (index > 0) {
+            converted = LogLayout.AIRSPEED.withName(converted.getName() + (index + 1));
+        }
+        LogLayout layout = converted;
+        if (rawAirspeedEnabled) {
+            layout = LogLayout.AIRSPEED_RAW.withName(converted.getName() + RawAirspeedConverter.RAW);
+        }
+        final String name = converted.getName();
+        File log = logFile(dir, layout);
+        try {
+            log.createNewFile();
+            LineCoding coding = index < lineCodings.size() ? lineCodings.get(index) : LineCoding.DEFAULT;
+            LogSink.Channel channel = openChannel(layout, log, airspeedCapacity(coding));
+            metrics.addChannel(channel, 0);
+
+            final AirspeedSource source = new AirspeedSource(this, device);
+            source.setLineCoding(coding);
+            if (index < calibrations.size()) {
+                source.setCalibration(calibrations.get(index));
+            }
+            source.setDisconnectListener(new Runnable() {
+                @Override
+                public void run() {
+                    Log.e(TAG, name + " sensor disconnected");
+                    if (sink != null) {
+                        sink.requestFlush();
+                    }
+                }
+            });
+            SensorSource.SampleListener target = null;
+            RawAirspeedConverter converter = null;
+            if (!rawAirspeedEnabled) {
+                target = channel;
+            }
+            if (index == 0) {
+                target = target == null ? flightComputer.airspeedInput()
+                        : new SensorSource.Tee(target, flightComputer.airspeedInput());
+            }
+            target = addTiers(dir, converted, target);
+            if (rawAirspeedEnabled) {
+                source.setRaw(true);
+                converter = new RawAirspeedConverter(source.getCalibration(), target);
+                target = new SensorSource.Tee(channel, converter);
+                calibrationLogs.add(new File(dir, logFileName + "." + name
+                        + RawAirspeedConverter.CALIBRATION_SUFFIX));
+            }
+            if (!source.start(timebase.channel(name, target, 0, SENSOR_MAX_LATENCY))) {
+                Log.e(TAG, "no airspeed sensor selected");
+            } else if (index == 0) {
+                flightComputer.setAirspeedCalibration(source.getCalibration());
+            }
+            airspeedSources.add(source);
+            converters.add(converter);
+            metrics.addCounter(name + " framing errors", new RecordingMetrics.Counter() {
+                @Override
+                public long get() {
+                    AirSpeedSensor sensor = source.getSensor();
+                    return sensor == null ? 0 : sensor.getFramingErrors();
+                }
+            });
+            metrics.addCounter(name + " frames/s", new RecordingMetrics.Counter() {
+                @Override
+                public long get() {
+                    AirSpeedSensor sensor = source.getSensor();
+                    return sensor == null ? 0 : Math.round(sensor.getFrameRate());
+                }
+            });
+            metrics.addCounter(name + " USB transfers", new RecordingMetrics.Counter() {
+                @Override
+                public long get() {
+                    AirSpeedSensor sensor = source.getSensor();
+                    return sensor == null ? 0 : sensor.getTransferCount();
+                }
+            });
+            metrics.addCounter(name + " reconnects", new RecordingMetrics.Counter() {
+                @Override
+                public long get() {
+                    return source.getReconnectCount();
+                }
+            });
+            metrics.addCounter(name + " longest gap ms", new RecordingMetrics.Counter() {
+                @Override
+                public long get() {
+                    return source.getGapMax() / 1000000;
+                }
+            });
+        } catch (FileNotFoundException e) {
+            Log.e(TAG, name + " log file not found", e);
+        } catch (IOException e) {
+            Log.e(TAG, "failed to create " + name + " log file", e);
+        }
     }
 
     public int recordStart(int flags) {
         airspeedEnabled = ((flags & FLAGS_AIRSPEED) != 0);
         pressureEnabled = ((flags & FLAGS_PRESSURE) != 0);
         locationEnabled = ((flags & FLAGS_LOCATION) != 0);
-
-        sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
-        sensor = sensorManager.getDefaultSensor(Sensor.TYPE_PRESSURE);
-        locationListener = new RecorderLocationListener();
-        pressureListener = new PressureListener();
+        binaryEnabled = ((flags & FLAGS_BINARY) != 0);
+        containerEnabled = ((flags & FLAGS_CONTAINER) != 0);
+        compressEnabled = ((flags & FLAGS_COMPRESSED) != 0);
+        rawAirspeedEnabled = ((flags & FLAGS_RAW_AIRSPEED) != 0);
+        pressureReportLatency = (flags & FLAGS_BATCH_PRESSURE) != 0
+                ? PressureSource.DEFAULT_REPORT_LATENCY_US : 0;
+        preallocate = ((flags & FLAGS_PREALLOCATE) != 0);
 
         startTime = SystemClock.elapsedRealtimeNanos();
 
@@ -337,20 +647,76 @@ public class RecordingService extends Service {
         File dir = new File(appExtDir.getAbsolutePath());
         boolean status = dir.mkdirs();
 
+        try {
+            int recovered = MappedLogFile.recoverAll(dir);
+            if (recovered > 0) {
+                Log.w(TAG, String.format(Locale.US, "recovered %d unfinished log files", recovered));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "failed to recover unfinished log files", e);
+        }
+
+        sink = new LogSink(startTime);
+        sink.setClock(ELAPSED_REALTIME);
+        sink.start();
+        metrics = new RecordingMetrics();
+        metricsLog = new File(dir, logFileName + ".metrics.txt");
+        timebase = new Timebase(startTime, ELAPSED_REALTIME);
+        timebase.setWallClock(SystemClock.elapsedRealtimeNanos(), System.currentTimeMillis());
+        timebaseLog = new File(dir, logFileName + ".timebase.txt");
+        phaseLog = new File(dir, logFileName + ".phases.txt");
+        flightComputer = new FlightComputer();
+        flightComputer.getPhase().setListener(phaseListener);
+        flightComputer.start();
+        decimators.clear();
+        tierLogs.clear();
+        segmentLogs.clear();
+        airspeedSources.clear();
+        converters.clear();
+        calibrationLogs.clear();
+
+        if (containerEnabled) {
+            containerLog = new File(dir, logFileName + LogExporter.CONTAINER_SUFFIX + compressSuffix());
+            try {
+                containerLog.createNewFile();
+                container = sink.addContainer(openSegments(dir, "flight", ".bin"));
+                binaryEnabled = true;
+            } catch (IOException e) {
+                Log.e(TAG, "failed to create flight log file, using separate files", e);
+                containerEnabled = false;
+            }
+        }
+
         if (ActivityCompat.checkSelfPermission(this, ACCESS_FINE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
             locationEnabled = false;
         }
 
         if (locationEnabled) {
-            locationLog = new File(dir, logFileName + ".location.log");
+            locationLog = logFile(dir, LogLayout.LOCATION);
             try {
                 locationLog.createNewFile();
-                locationStream = new FileOutputStream(locationLog);
-                locationWriter = new OutputStreamWriter(locationStream);
-
-                locationManager = (LocationManager) this.getSystemService(Context.LOCATION_SERVICE);
-                locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER,
-                        40, 1, locationListener);
+                locationChannel = openChannel(LogLayout.LOCATION, locationLog);
+                metrics.addChannel(locationChannel, 0);
+
+                locationSource = new LocationSource(
+                        (LocationManager) getSystemService(Context.LOCATION_SERVICE));
+                locationSource.setTimebase(timebase);
+                locationSource.setUpdates(FlightPhase.gnssInterval(FlightPhase.GROUND_IDLE),
+                        FlightPhase.gnssDistance(FlightPhase.GROUND_IDLE));
+                final LocationSource source = locationSource;
+                metrics.addCounter("location interval ms", new RecordingMetrics.Counter() {
+                    @Override
+                    public long get() {
+                        return source.getMinTime();
+                    }
+                });
+                SensorSource.SampleListener locationTarget = new SensorSource.Tee(
+                        locationChannel, flightComputer.locationInput());
+                locationTarget = addTiers(dir, LogLayout.LOCATION, locationTarget);
+                if (!locationSource.start(timebase.channel("location", locationTarget,
+                        0, LOCATION_MAX_LATENCY))) {
+                    Log.e(TAG, "location updates not available");
+                }
             } catch (FileNotFoundException e) {
                 Log.e(TAG, "location log file not found", e);
                 locationEnabled = false;
@@ -361,16 +727,34 @@ public class RecordingService extends Service {
         }
 
         if (pressureEnabled) {
-            pressureLog = new File(dir, logFileName + ".pressure.log");
+            pressureLog = logFile(dir, LogLayout.PRESSURE);
             try {
                 pressureLog.createNewFile();
-                pressureStream = new FileOutputStream(pressureLog);
-                pressureWriter = new OutputStreamWriter(pressureStream);
-
-                pressureThread = new HandlerThread("pressure", Process.THREAD_PRIORITY_MORE_FAVORABLE);
-                pressureThread.start();
-                pressureHandler = new Handler(pressureThread.getLooper());
-                sensorManager.registerListener(pressureListener, sensor, 40000, pressureHandler);
+                pressureChannel = openChannel(LogLayout.PRESSURE, pressureLog);
+                metrics.addChannel(pressureChannel, PressureSource.SAMPLING_PERIOD_US * 1000L);
+
+                pressureSource = new PressureSource((SensorManager) getSystemService(SENSOR_SERVICE));
+                pressureSource.setMaxReportLatency(pressureReportLatency);
+                SensorSource.SampleListener pressureTarget = new SensorSource.Tee(
+                        pressureChannel, flightComputer.pressureInput());
+                pressureTarget = addTiers(dir, LogLayout.PRESSURE, pressureTarget);
+                if (!pressureSource.start(timebase.channel("pressure", pressureTarget,
+                        0, pressureReportLatency * 1000L + SENSOR_MAX_LATENCY))) {
+                    Log.e(TAG, "pressure sensor not available");
+                }
+                final PressureSource source = pressureSource;
+                metrics.addCounter("pressure batches", new RecordingMetrics.Counter() {
+                    @Override
+                    public long get() {
+                        return source.getBatchCount();
+                    }
+                });
+                metrics.addCounter("pressure largest batch", new RecordingMetrics.Counter() {
+                    @Override
+                    public long get() {
+                        return source.getLargestBatch();
+                    }
+                });
             } catch (FileNotFoundException e) {
                 Log.e(TAG, "pressure log file not found", e);
                 pressureEnabled = false;
@@ -381,23 +765,12 @@ public class RecordingService extends Service {
         }
 
         if (airspeedEnabled) {
-            airspeedLog = new File(dir, logFileName + ".airspeed.log");
-            try {
-                airspeedLog.createNewFile();
-                airspeedStream = new FileOutputStream(airspeedLog);
-                airspeedWriter = new OutputStreamWriter(airspeedStream);
-
-                speedSensor = new AirSpeedSensor(this);
-                speedSensor.setListener(new RecorderAirspeedListener());
-                speedSensor.setDevice(device);
-                speedSensor.sensorStart();
-            } catch (FileNotFoundException e) {
-                Log.e(TAG, "airspeed log file not found", e);
-                airspeedEnabled = false;
-            } catch (IOException e) {
-                Log.e(TAG, "failed to create airspeed log file", e);
-                airspeedEnabled = false;
+            int n = Math.max(1, devices.size());
+            int i;
+            for (i = 0; i < n; i += 1) {
+                startAirspeed(dir, i);
             }
+            airspeedEnabled = !airspeedSources.isEmpty();
         }
 
         recording = true;
@@ -408,48 +781,78 @@ public class RecordingService extends Service {
     public void recordStop() {
         recording = false;
 
-        if (airspeedEnabled) {
-            speedSensor.sensorStop();
-            if (airspeedWriter != null) {
-                try {
-                    airspeedWriter.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                airspeedWriter = null;
+        for (AirspeedSource source : airspeedSources) {
+            source.stop();
+        }
+        for (AirspeedSource source : airspeedSources) {
+            AirSpeedSensor sensor = source.getSensor();
+            if (sensor != null) {
+                Log.i(TAG, String.format(Locale.US, "airspeed %s: %s, %s, %d frames, %.1f frames/s, %d framing errors",
+                        source.getDevice().getDeviceName(), sensor.getCalibration(),
+                        sensor.getLineCoding(), sensor.getFrameCount(),
+                        sensor.getFrameRate(), sensor.getFramingErrors()));
+            }
+            if (source.getReconnectCount() > 0) {
+                Log.i(TAG, String.format(Locale.US, "airspeed %s: %d gaps, %.3f s total, %.3f s longest, "
+                        + "last reconnect took %.3f s", source.getDevice().getDeviceName(),
+                        source.getGapCount(), source.getGapTotal() / 1e9, source.getGapMax() / 1e9,
+                        source.getReconnectTime() / 1e9));
             }
-            airspeedStream = null;
-            airspeedLog = null;
         }
 
         if (pressureEnabled) {
-            sensorManager.unregisterListener(pressureListener);
-            if (pressureWriter != null) {
-                try {
-                    pressureWriter.close();
-                } catch (IOException e) {
-                    Log.e(TAG, "error closing pressure log file", e);
-                }
-                pressureWriter = null;
-            }
-            pressureStream = null;
-            pressureLog = null;
-            pressureThread.quitSafely();
+            pressureSource.stop();
+            Log.i(TAG, String.format(Locale.US, "pressure: %s, %d readings in %d batches, %.1f average",
+                    pressureSource.isBatching() ? "batched" : "not batched",
+                    pressureSource.getEventCount(), pressureSource.getBatchCount(),
+                    pressureSource.getAverageBatch()));
         }
 
         if (locationEnabled) {
-            locationManager.removeUpdates(locationListener);
-            if (locationWriter != null) {
-                try {
-                    locationWriter.close();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                locationWriter = null;
+            locationSource.stop();
+        }
+
+        for (Decimator decimator : decimators) {
+            decimator.flush();
+        }
+        flightComputer.stop();
+        sink.close();
+        for (LogSink.Channel channel : sink.channels) {
+            if (channel.getDropped() > 0 || channel.getWriteErrors() > 0) {
+                Log.w(TAG, String.format(Locale.US, "%s log: %d samples dropped, %d write errors",
+                        channel.getName(), channel.getDropped(), channel.getWriteErrors()),
+                        channel.getLastError());
             }
-            locationStream = null;
-            locationLog = null;
         }
+        try {
+            metrics.writeTo(metricsLog);
+        } catch (IOException e) {
+            Log.e(TAG, "failed to write recording metrics", e);
+            metricsLog = null;
+        }
+        try {
+            timebase.writeTo(timebaseLog);
+        } catch (IOException e) {
+            Log.e(TAG, "failed to write timebase", e);
+            timebaseLog = null;
+        }
+        try {
+            flightComputer.getPhase().writeTo(phaseLog, startTime);
+        } catch (IOException e) {
+            Log.e(TAG, "failed to write flight phases", e);
+            phaseLog = null;
+        }
+        writeCalibrations();
+
+        locationChannel = null;
+        pressureChannel = null;
+        container = null;
+        containerLog = null;
+        locationLog = null;
+        pressureLog = null;
+        metricsLog = null;
+        timebaseLog = null;
+        phaseLog = null;
 
         if (foregroundState) {
             stopForeground(true);
@@ -459,6 +862,27 @@ public class RecordingService extends Service {
         notifyHost();
     }
 
+    /**
+     * Stores the calibration profile of each raw airspeed log next to it
+     */
+    void writeCalibrations() {
+        int i;
+        for (i = 0; i < calibrationLogs.size(); i += 1) {
+            File file = calibrationLogs.get(i);
+            try {
+                FileOutputStream out = new FileOutputStream(file);
+                try {
+                    out.write((airspeedSources.get(i).getCalibration().format() + "\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "failed to write " + file, e);
+            }
+        }
+    }
+
     public boolean isRecording() {
         return recording;
     }
@@ -478,4 +902,32 @@ public class RecordingService extends Service {
     public boolean isAirspeedRecorded() {
         return airspeedEnabled;
     }
+
+    public boolean isBinaryFormat() {
+        return binaryEnabled;
+    }
+
+    public boolean isSingleFile() {
+        return containerEnabled;
+    }
+
+    public boolean isCompressed() {
+        return compressEnabled;
+    }
+
+    public boolean isRawAirspeed() {
+        return rawAirspeedEnabled;
+    }
+
+    public boolean isPressureBatched() {
+        return pressureReportLatency > 0;
+    }
+
+    /**
+     * True if logs are written through preallocated memory-mapped segments
+     * instead of plain appends
+     */
+    public boolean isPreallocated() {
+        return preallocate;
+    }
 }
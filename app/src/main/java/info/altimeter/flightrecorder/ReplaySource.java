@@ -0,0 +1,74 @@
+package info.altimeter.flightrecorder;
+
+import java.io.IOException;
+
+/**
+ * Plays back one channel of a binary log, at the recorded pace, a multiple
+ * of it, or as fast as possible.
+ */
+public class ReplaySource extends GeneratorSource {
+    final BinaryLogReader reader;
+    double speed = 1;
+    boolean shifted = false;
+    long timeBase = 0;
+    IOException error = null;
+
+    /**
+     * Replays the samples of the first channel recorded with the given layout
+     */
+    public ReplaySource(BinaryLogReader reader, LogLayout layout) {
+        super(layout);
+        this.reader = reader;
+    }
+
+    /**
+     * @param speed playback speed relative to the recording, 0 for no pacing
+     */
+    public void setSpeed(double speed) {
+        this.speed = speed;
+    }
+
+    /**
+     * Shifts all timestamps so the first sample is emitted at the given time
+     */
+    public void setTimeBase(long ns) {
+        timeBase = ns;
+        shifted = true;
+    }
+
+    @Override
+    public void run() {
+        long origin = System.nanoTime();
+        long first = 0;
+        boolean started = false;
+        int i;
+
+        try {
+            while (running && reader.next(layout)) {
+                long time = reader.getTime();
+                if (!started) {
+                    first = time;
+                    started = true;
+                }
+                if (speed > 0) {
+                    pace(origin + (long) ((time - first) / speed));
+                }
+                for (i = 0; i < layout.count; i += 1) {
+                    sample[i] = layout.kind[i] == LogLayout.INT
+                            ? reader.getField(i) : LogLayout.real(reader.getValue(i));
+                }
+                emit(shifted ? time - first + timeBase : time);
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+        running = false;
+    }
+
+    /**
+     * Read error that ended the replay early, or null
+     */
+    public IOException getError() {
+        return error;
+    }
+}
@@ -0,0 +1,120 @@
+package info.altimeter.flightrecorder;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue of samples (timestamp + fixed number of long fields).
+ *
+ * Any number of threads may offer samples, a single thread consumes them.
+ * All storage is allocated up front; a full ring rejects the sample instead of blocking.
+ */
+public class SampleRing {
+    final int capacity;
+    final int mask;
+    final int width;
+    final long[] times;
+    final long[] values;
+    final AtomicLongArray sequence;
+    final AtomicLong tail = new AtomicLong();
+    final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity number of samples, rounded up to a power of two
+     * @param width number of fields per sample
+     */
+    public SampleRing(int capacity, int width) {
+        int n = 1;
+        while (n < capacity) {
+            n <<= 1;
+        }
+        this.capacity = n;
+        this.mask = n - 1;
+        this.width = width;
+        times = new long[n];
+        values = new long[n * width];
+        sequence = new AtomicLongArray(n);
+
+        int i;
+        for (i = 0; i < n; i += 1) {
+            sequence.set(i, i);
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    /**
+     * Number of samples waiting to be consumed (approximate while producers are active)
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        if (size < 0) {
+            return 0;
+        }
+        return (int) Math.min(size, capacity);
+    }
+
+    /**
+     * Appends a sample, returns false if the ring is full
+     */
+    public boolean offer(long time, long[] sample) {
+        long pos;
+        int index;
+
+        while (true) {
+            pos = tail.get();
+            index = (int) (pos & mask);
+            long dif = sequence.get(index) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+            } else if (dif < 0) {
+                return false;
+            }
+        }
+
+        times[index] = time;
+        System.arraycopy(sample, 0, values, index * width, width);
+        sequence.lazySet(index, pos + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side: true if the oldest sample has been completely written
+     */
+    public boolean peek() {
+        long pos = head.get();
+        return sequence.get((int) (pos & mask)) == pos + 1;
+    }
+
+    /**
+     * Consumer side: timestamp of the oldest sample, valid after peek() returned true
+     */
+    public long peekTime() {
+        return times[(int) (head.get() & mask)];
+    }
+
+    /**
+     * Consumer side: copies the oldest sample into dest and removes it from the ring,
+     * valid after peek() returned true
+     *
+     * @return sample timestamp
+     */
+    public long take(long[] dest) {
+        long pos = head.get();
+        int index = (int) (pos & mask);
+        long time = times[index];
+
+        System.arraycopy(values, index * width, dest, 0, width);
+        sequence.lazySet(index, pos + capacity);
+        head.lazySet(pos + 1);
+        return time;
+    }
+}
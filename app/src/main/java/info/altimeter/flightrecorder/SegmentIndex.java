@@ -0,0 +1,153 @@
+package info.altimeter.flightrecorder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index of a log split by LogSegments.
+ *
+ * <pre>
+ * # start startTime suffix extension
+ * number firstTime lastTime samples bytes name
+ * </pre>
+ *
+ * Times are in nanoseconds relative to the recording start, like the log times.
+ * A segment that was being written when the recorder died has no line; it is
+ * listed with an open time range after the last indexed segment.
+ */
+public class SegmentIndex {
+    public static class Entry {
+        public final int number;
+        public final long firstTime;
+        public final long lastTime;
+        public final long samples;
+        public final long bytes;
+        public final File file;
+
+        Entry(int number, long firstTime, long lastTime, long samples, long bytes, File file) {
+            this.number = number;
+            this.firstTime = firstTime;
+            this.lastTime = lastTime;
+            this.samples = samples;
+            this.bytes = bytes;
+            this.file = file;
+        }
+
+        /**
+         * False for a segment that was not finished
+         */
+        public boolean isIndexed() {
+            return samples >= 0;
+        }
+    }
+
+    final ArrayList<Entry> entries = new ArrayList<>();
+    long startTime = 0;
+    String suffix = null;
+
+    public static SegmentIndex read(File indexFile) throws IOException {
+        SegmentIndex index = new SegmentIndex();
+        File dir = indexFile.getAbsoluteFile().getParentFile();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(indexFile), StandardCharsets.US_ASCII));
+        String line;
+
+        try {
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts.length == 5 && parts[0].equals("#") && parts[1].equals("start")) {
+                    index.startTime = Long.parseLong(parts[2]);
+                    index.suffix = parts[4];
+                    continue;
+                }
+                if (parts.length != 6 || parts[0].startsWith("#")) {
+                    continue;
+                }
+                try {
+                    index.entries.add(new Entry(Integer.parseInt(parts[0]),
+                            Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+                            Long.parseLong(parts[3]), Long.parseLong(parts[4]),
+                            new File(dir, parts[5])));
+                } catch (NumberFormatException e) {
+                    // Torn line at the end of an unfinished index
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        index.addUnfinished(indexFile);
+        return index;
+    }
+
+    /**
+     * Looks for the segment after the last indexed one
+     */
+    private void addUnfinished(File indexFile) {
+        String path = indexFile.getPath();
+        if (suffix == null || !path.endsWith(LogSegments.INDEX_SUFFIX)) {
+            return;
+        }
+        String prefix = path.substring(0, path.length() - LogSegments.INDEX_SUFFIX.length());
+        int next = 0;
+        long from = 0;
+
+        if (!entries.isEmpty()) {
+            Entry last = entries.get(entries.size() - 1);
+            next = last.number + 1;
+            from = last.lastTime;
+        }
+
+        File file = new File(LogSegments.segmentName(prefix, next, suffix));
+        if (file.exists()) {
+            entries.add(new Entry(next, from, Long.MAX_VALUE, -1, file.length(), file));
+        }
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Segments that may contain samples between from and to (ns since the recording start)
+     */
+    public List<Entry> find(long from, long to) {
+        ArrayList<Entry> result = new ArrayList<>();
+
+        for (Entry entry : entries) {
+            if (entry.samples == 0) {
+                continue;
+            }
+            if (entry.lastTime >= from && entry.firstTime <= to) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copies the samples between from and to (ns since the recording start) out
+     * of a segmented text log, entering each segment through its TimeIndex
+     *
+     * @return number of bytes copied
+     */
+    public long copyRange(long from, long to, OutputStream out) throws IOException {
+        long total = 0;
+
+        for (Entry entry : find(from, to)) {
+            total += TimeIndex.copyRange(entry.file, from, to, out);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,42 @@
+package info.altimeter.flightrecorder;
+
+/**
+ * Something that produces samples for one log layout: a device sensor,
+ * a recorded log being replayed, or a generator.
+ *
+ * Samples are delivered on the source's own thread; the values array is
+ * reused and only valid during the callback.
+ */
+public interface SensorSource {
+    interface SampleListener {
+        void onSample(long time, long[] values);
+    }
+
+    /**
+     * Passes every sample to two listeners in turn
+     */
+    class Tee implements SampleListener {
+        final SampleListener first;
+        final SampleListener second;
+
+        public Tee(SampleListener first, SampleListener second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        public void onSample(long time, long[] values) {
+            first.onSample(time, values);
+            second.onSample(time, values);
+        }
+    }
+
+    LogLayout getLayout();
+
+    /**
+     * @return false if the source is not available
+     */
+    boolean start(SampleListener listener);
+
+    void stop();
+}
@@ -0,0 +1,101 @@
+package info.altimeter.flightrecorder;
+
+import java.util.Random;
+
+/**
+ * Generates samples at a fixed rate, either paced in real time or as fast
+ * as the consumer accepts them, for load tests of the recording pipeline.
+ */
+public class SyntheticSource extends GeneratorSource {
+    public interface Generator {
+        /**
+         * Fills in the fields of sample number index
+         */
+        void generate(long index, long time, long[] sample);
+    }
+
+    final Generator generator;
+    final long period;
+    long startTime = 0;
+    long count = 0;
+    boolean paced = true;
+
+    /**
+     * @param rate samples per second of sample time
+     */
+    public SyntheticSource(LogLayout layout, double rate, Generator generator) {
+        super(layout);
+        this.generator = generator;
+        period = Math.max(1, Math.round(1e9 / rate));
+    }
+
+    /**
+     * Source with randomWalk values
+     */
+    public SyntheticSource(LogLayout layout, double rate, long seed) {
+        this(layout, rate, randomWalk(layout, seed));
+    }
+
+    /**
+     * Timestamp of the first sample
+     */
+    public void setStartTime(long ns) {
+        startTime = ns;
+    }
+
+    /**
+     * Number of samples to emit, 0 to run until stopped
+     */
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    /**
+     * With paced false, samples are emitted back to back regardless of their timestamps
+     */
+    public void setPaced(boolean paced) {
+        this.paced = paced;
+    }
+
+    @Override
+    public void run() {
+        long origin = System.nanoTime();
+        long i;
+
+        for (i = 0; running && (count == 0 || i < count); i += 1) {
+            long offset = i * period;
+            if (paced) {
+                pace(origin + offset);
+            }
+            generator.generate(i, startTime + offset, sample);
+            emit(startTime + offset);
+        }
+        running = false;
+    }
+
+    /**
+     * Values that drift by a few units of the last printed digit per sample;
+     * INT fields take random values 0-3
+     */
+    public static Generator randomWalk(LogLayout layout, long seed) {
+        final Random random = new Random(seed);
+        final double[] value = new double[layout.count];
+        final LogLayout l = layout;
+
+        return new Generator() {
+            @Override
+            public void generate(long index, long time, long[] sample) {
+                int i;
+
+                for (i = 0; i < l.count; i += 1) {
+                    if (l.kind[i] == LogLayout.INT) {
+                        sample[i] = random.nextInt(4);
+                        continue;
+                    }
+                    value[i] += random.nextGaussian() * 3 / Math.pow(10, l.precision[i]);
+                    sample[i] = LogLayout.real(value[i]);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,207 @@
+package info.altimeter.flightrecorder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Sparse map from sample time to byte offset in a text log, kept next to the
+ * log as log name + SUFFIX.
+ *
+ * <pre>
+ * # start startTime interval samples
+ * time offset
+ * </pre>
+ *
+ * One line for the first sample and then for every interval-th sample, with
+ * the time relative to the recording start like the log times. A time range is
+ * found with two binary searches; the bytes between the two offsets contain it,
+ * with at most interval samples extra at each end.
+ *
+ * Only text logs can be entered in the middle; binary records are delta-coded
+ * and have to be read from the file header.
+ */
+public class TimeIndex {
+    public static final String SUFFIX = ".times";
+    public static final int DEFAULT_INTERVAL = 64;
+
+    final long startTime;
+    final int interval;
+    long[] times = new long[256];
+    long[] offsets = new long[256];
+    int size = 0;
+    long samples = 0;
+
+    public TimeIndex(long startTime, int interval) {
+        this.startTime = startTime;
+        this.interval = interval;
+    }
+
+    public static File indexFile(File log) {
+        return new File(log.getPath() + SUFFIX);
+    }
+
+    /**
+     * Called for every sample in file order
+     *
+     * @param time sample time on the recording clock
+     * @param offset position of the sample in the log
+     */
+    public void add(long time, long offset) {
+        if (samples % interval == 0) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            times[size] = time - startTime;
+            offsets[size] = offset;
+            size += 1;
+        }
+        samples += 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Offset at which to start reading for samples at or after time
+     * (ns since the recording start)
+     */
+    public long floorOffset(long time) {
+        int i = search(time);
+        return i < 0 ? 0 : offsets[i];
+    }
+
+    /**
+     * Offset after which there are no samples at or before time, -1 for the end of the log
+     */
+    public long ceilingOffset(long time) {
+        int i = search(time) + 1;
+        return i < size ? offsets[i] : -1;
+    }
+
+    /**
+     * Last entry at or before time, -1 if time is before the first one
+     */
+    int search(long time) {
+        int low = 0;
+        int high = size - 1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (times[mid] <= time) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    public void write(File file) throws IOException {
+        LogFormatter out = new LogFormatter(64 * 1024);
+        OutputStream stream = new FileOutputStream(file);
+        int i;
+
+        try {
+            out.append("# start ").append(Long.toString(startTime))
+                    .append(' ').append(Integer.toString(interval))
+                    .append(' ').append(Long.toString(samples)).append('\n');
+            for (i = 0; i < size; i += 1) {
+                out.append(Long.toString(times[i])).append(' ')
+                        .append(Long.toString(offsets[i])).append('\n');
+                if (out.length() >= 60 * 1024) {
+                    out.writeTo(stream);
+                    out.reset();
+                }
+            }
+            out.writeTo(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    public static TimeIndex read(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.US_ASCII));
+        TimeIndex index = null;
+        String line;
+
+        try {
+            line = reader.readLine();
+            String[] parts = line == null ? new String[0] : line.trim().split("\\s+");
+            if (parts.length != 5 || !parts[0].equals("#") || !parts[1].equals("start")) {
+                throw new IOException("not a time index: " + file);
+            }
+            index = new TimeIndex(Long.parseLong(parts[2]), Integer.parseInt(parts[3]));
+            index.samples = Long.parseLong(parts[4]);
+            while ((line = reader.readLine()) != null) {
+                int space = line.indexOf(' ');
+                if (space < 0) {
+                    continue;
+                }
+                long time = Long.parseLong(line.substring(0, space));
+                long offset = Long.parseLong(line.substring(space + 1));
+                if (index.size == index.times.length) {
+                    index.times = Arrays.copyOf(index.times, index.size * 2);
+                    index.offsets = Arrays.copyOf(index.offsets, index.size * 2);
+                }
+                index.times[index.size] = time;
+                index.offsets[index.size] = offset;
+                index.size += 1;
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("corrupt time index: " + file, e);
+        } finally {
+            reader.close();
+        }
+        return index;
+    }
+
+    /**
+     * Copies the part of a text log that holds the samples between from and to
+     * (ns since the recording start). Without an index the whole log is copied.
+     *
+     * @return number of bytes copied
+     */
+    public static long copyRange(File log, long from, long to, OutputStream out) throws IOException {
+        File indexFile = indexFile(log);
+        long start = 0;
+        long end = -1;
+
+        if (indexFile.exists()) {
+            TimeIndex index = read(indexFile);
+            start = index.floorOffset(from);
+            end = index.ceilingOffset(to);
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(log, "r");
+        byte[] buffer = new byte[64 * 1024];
+        long total = 0;
+        try {
+            if (end < 0 || end > raf.length()) {
+                end = raf.length();
+            }
+            raf.seek(start);
+            while (start + total < end) {
+                int n = raf.read(buffer, 0, (int) Math.min(buffer.length, end - start - total));
+                if (n < 0) {
+                    break;
+                }
+                out.write(buffer, 0, n);
+                total += n;
+            }
+        } finally {
+            raf.close();
+        }
+        return total;
+    }
+}
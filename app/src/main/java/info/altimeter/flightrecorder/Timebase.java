@@ -0,0 +1,184 @@
+package info.altimeter.flightrecorder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Common clock for all channels of a recording, with anchors to UTC.
+ *
+ * All log times are on the monotonic recording clock (elapsed realtime). Each
+ * source stamps a sample as close to its origin as it can; a Channel sits
+ * between the source and the log, compares the stamp with the arrival time and
+ * keeps the smallest difference seen. That minimum is the transport latency of
+ * the fastest sample plus any offset between the sensor clock and the recording
+ * clock. If it is outside what the channel can plausibly take (some sensor HALs
+ * stamp events on a different clock), the offset is removed so that the fastest
+ * sample arrives nominalLatency after its corrected time.
+ *
+ * The wall clock at the start and the GNSS time of the latest fix are kept as
+ * anchors, so that recording times can be converted to UTC afterwards.
+ */
+public class Timebase {
+    /**
+     * A stamp this far after its arrival is treated as a clock offset, not jitter
+     */
+    public static final long MAX_EARLY = 2000000L;
+
+    final long startTime;
+    final LogSink.Clock clock;
+    final CopyOnWriteArrayList<Channel> channels = new CopyOnWriteArrayList<>();
+    long wallElapsed = 0;
+    long wallUtc = 0;
+    volatile long gnssElapsed = 0;
+    volatile long gnssUtc = 0;
+    volatile long gnssFixes = 0;
+
+    /**
+     * @param startTime recording start on the clock, log times are relative to it
+     */
+    public Timebase(long startTime, LogSink.Clock clock) {
+        this.startTime = startTime;
+        this.clock = clock;
+    }
+
+    /**
+     * Wall clock (ms since the epoch) read at the given time of the recording clock
+     */
+    public void setWallClock(long elapsed, long utcMillis) {
+        wallElapsed = elapsed;
+        wallUtc = utcMillis;
+    }
+
+    /**
+     * Time of a GNSS fix (ms since the epoch, GPS time converted to UTC) and the
+     * time of the same fix on the recording clock
+     */
+    public void setGnssTime(long elapsed, long utcMillis) {
+        gnssUtc = utcMillis;
+        gnssElapsed = elapsed;
+        gnssFixes += 1;
+    }
+
+    public boolean hasGnssTime() {
+        return gnssFixes > 0;
+    }
+
+    /**
+     * Converts a time of the recording clock to ms since the epoch, based on GNSS
+     * time if there was a fix, else on the wall clock
+     */
+    public double toUtc(long elapsed) {
+        if (gnssFixes > 0) {
+            return gnssUtc + (elapsed - gnssElapsed) / 1e6;
+        }
+        return wallUtc + (elapsed - wallElapsed) / 1e6;
+    }
+
+    /**
+     * Puts a channel between a source and its log
+     *
+     * @param nominalLatency expected time from a sample to its delivery (ns)
+     * @param maxLatency longest delivery time that is not a clock offset (ns)
+     */
+    public Channel channel(String name, SensorSource.SampleListener target,
+            long nominalLatency, long maxLatency) {
+        Channel channel = new Channel(name, target, nominalLatency, maxLatency);
+        channels.add(channel);
+        return channel;
+    }
+
+    public class Channel implements SensorSource.SampleListener {
+        final String name;
+        final SensorSource.SampleListener target;
+        final long nominalLatency;
+        final long maxLatency;
+        final LatencyHistogram latency = new LatencyHistogram();
+        volatile long minDelay = Long.MAX_VALUE;
+        volatile long offset = 0;
+        volatile long samples = 0;
+
+        Channel(String name, SensorSource.SampleListener target, long nominalLatency, long maxLatency) {
+            this.name = name;
+            this.target = target;
+            this.nominalLatency = nominalLatency;
+            this.maxLatency = maxLatency;
+        }
+
+        @Override
+        public void onSample(long time, long[] values) {
+            target.onSample(stamp(time, clock.now()), values);
+        }
+
+        /**
+         * @return the sample time on the recording clock
+         */
+        long stamp(long time, long arrival) {
+            long delay = arrival - time;
+            if (delay < minDelay) {
+                minDelay = delay;
+                if (delay < -MAX_EARLY || delay > maxLatency) {
+                    offset = delay - nominalLatency;
+                } else {
+                    offset = 0;
+                }
+            }
+            time += offset;
+            latency.record(Math.max(0, arrival - time));
+            samples += 1;
+            return time;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Correction added to the sensor stamps, 0 if they are on the recording clock
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        /**
+         * Time from the corrected sample time to its arrival
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+    }
+
+    public String report() {
+        StringBuilder text = new StringBuilder();
+
+        text.append(String.format(Locale.US, "start %d\n", startTime));
+        text.append(String.format(Locale.US, "wall %d %d\n", wallElapsed, wallUtc));
+        if (gnssFixes > 0) {
+            text.append(String.format(Locale.US, "gnss %d %d\n", gnssElapsed, gnssUtc));
+            text.append(String.format(Locale.US, "# wall clock - gnss %.3f ms\n",
+                    wallUtc + (gnssElapsed - wallElapsed) / 1e6 - gnssUtc));
+        }
+        for (Channel channel : channels) {
+            text.append(String.format(Locale.US, "channel %s offset %d samples %d\n",
+                    channel.name, channel.offset, channel.samples));
+            text.append(String.format(Locale.US, "# %s latency %s\n", channel.name, channel.latency));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes the anchors and channel corrections next to the logs
+     */
+    public void writeTo(File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(report().getBytes(StandardCharsets.US_ASCII));
+        } finally {
+            out.close();
+        }
+    }
+}
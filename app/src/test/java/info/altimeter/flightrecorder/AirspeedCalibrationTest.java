@@ -0,0 +1,52 @@
+package info.altimeter.flightrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AirspeedCalibrationTest {
+    @Test
+    public void tablesMatchFormulas() {
+        AirspeedCalibration a = new AirspeedCalibration(AirspeedCalibration.TYPE_A, 1.0f);
+        AirspeedCalibration b = new AirspeedCalibration(AirspeedCalibration.TYPE_B, 5.0f, 3.5f).compile();
+        int i;
+
+        a.compile();
+        for (i = 0; i < AirspeedCalibration.PRESSURE_COUNTS; i += 1) {
+            assertEquals(1.0f * (i - 8192) / 6554.0f, a.psi(i), 0);
+            assertEquals(5.0f * (i - 8191 - 3.5f) / 7372.0f, b.psi(i), 0);
+        }
+        for (i = 0; i < AirspeedCalibration.TEMPERATURE_COUNTS; i += 1) {
+            assertEquals(((i - 511) * 100.0f) / 1024.0f, a.celsius(i), 0);
+        }
+        assertEquals(0, a.ias(8192), 0);
+        assertEquals(0, a.ias(100), 0);
+        assertEquals(FlightComputer.indicatedAirspeed(a.psi(9000) * FlightComputer.PA_PER_PSI / 100),
+                a.ias(9000), 1e-4);
+    }
+
+    @Test
+    public void zeroCaptureAndProfiles() {
+        AirspeedCalibration calibration = new AirspeedCalibration(AirspeedCalibration.TYPE_A, 2.0f);
+        AirspeedCalibration.ZeroCapture capture = new AirspeedCalibration.ZeroCapture(4);
+
+        assertFalse(capture.add(8200));
+        assertFalse(capture.add(8201));
+        assertFalse(capture.add(8202));
+        assertTrue(capture.add(8203));
+        AirspeedCalibration zeroed = capture.apply(calibration).compile();
+        assertEquals(9.5f, zeroed.getZeroOffset(), 0);
+        assertEquals(-2.0f * 0.5f / 6554, zeroed.psi(8201), 1e-7);
+
+        AirspeedCalibration stored = AirspeedCalibration.parse(zeroed.format());
+        assertEquals(AirspeedCalibration.TYPE_A, stored.getOutputType());
+        assertEquals(2.0f, stored.getPressureRange(), 0);
+        assertEquals(9.5f, stored.getZeroOffset(), 0);
+        try {
+            AirspeedCalibration.parse("C 1.0 0");
+            fail();
+        } catch (IllegalArgumentException e) {
+            // OK
+        }
+    }
+}
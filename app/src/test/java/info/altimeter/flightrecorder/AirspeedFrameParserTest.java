@@ -0,0 +1,129 @@
+package info.altimeter.flightrecorder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AirspeedFrameParserTest {
+    static class Collector implements AirspeedFrameParser.FrameListener {
+        ArrayList<int[]> frames = new ArrayList<>();
+
+        @Override
+        public void onFrame(int stat, int diff, int temp) {
+            frames.add(new int[] {stat, diff, temp});
+        }
+    }
+
+    private static String frame(int stat, int diff, int temp) {
+        return String.format(Locale.US, "*%04X%04X\r\n", (stat << 14) | diff, temp << 5);
+    }
+
+    @Test
+    public void parsesSingleFrame() {
+        Collector collector = new Collector();
+        AirspeedFrameParser parser = new AirspeedFrameParser(collector);
+        byte[] data = "*A0FF1F40\r\n".getBytes(StandardCharsets.US_ASCII);
+
+        assertEquals(1, parser.parse(data, 0, data.length));
+        assertEquals(1, collector.frames.size());
+        assertEquals(2, collector.frames.get(0)[0]);
+        assertEquals(0x20FF, collector.frames.get(0)[1]);
+        assertEquals(0x1F40 >> 5, collector.frames.get(0)[2]);
+        assertEquals(0, parser.getFramingErrors());
+    }
+
+    @Test
+    public void acceptsLowerCaseAndBareTerminators() {
+        Collector collector = new Collector();
+        AirspeedFrameParser parser = new AirspeedFrameParser(collector);
+        byte[] data = "*1fff0000\n*2000ffe0\r".getBytes(StandardCharsets.US_ASCII);
+
+        assertEquals(2, parser.parse(data, 0, data.length));
+        assertEquals(0x1FFF, collector.frames.get(0)[1]);
+        assertEquals(0x7FF, collector.frames.get(1)[2]);
+        assertEquals(0, parser.getFramingErrors());
+    }
+
+    @Test
+    public void framesSplitAtEveryPosition() {
+        Random random = new Random(7);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        int[][] expected = new int[200][];
+        int i;
+
+        for (i = 0; i < expected.length; i += 1) {
+            expected[i] = new int[] {random.nextInt(4), random.nextInt(1 << 14), random.nextInt(1 << 11)};
+            byte[] b = frame(expected[i][0], expected[i][1], expected[i][2])
+                    .getBytes(StandardCharsets.US_ASCII);
+            stream.write(b, 0, b.length);
+        }
+        byte[] data = stream.toByteArray();
+
+        for (int chunk = 1; chunk <= 23; chunk += 1) {
+            Collector collector = new Collector();
+            AirspeedFrameParser parser = new AirspeedFrameParser(collector);
+            int offset = 0;
+            while (offset < data.length) {
+                int n = Math.min(chunk, data.length - offset);
+                parser.parse(data, offset, n);
+                offset += n;
+            }
+            assertEquals(expected.length, collector.frames.size());
+            for (i = 0; i < expected.length; i += 1) {
+                assertArrayEquals(toLong(expected[i]), toLong(collector.frames.get(i)));
+            }
+            assertEquals(0, parser.getFramingErrors());
+        }
+
+        for (i = 0; i < 1000; i += 1) {
+            Collector collector = new Collector();
+            AirspeedFrameParser parser = new AirspeedFrameParser(collector);
+            int offset = 0;
+            while (offset < data.length) {
+                int n = Math.min(1 + random.nextInt(40), data.length - offset);
+                parser.parse(data, offset, n);
+                offset += n;
+            }
+            assertEquals(expected.length, collector.frames.size());
+        }
+    }
+
+    @Test
+    public void resynchronizesAfterCorruption() {
+        Collector collector = new Collector();
+        AirspeedFrameParser parser = new AirspeedFrameParser(collector);
+        String input = "0F1E\r\n"          // tail of a frame received before we connected
+                + frame(0, 8192, 600)
+                + "*12G45678\r\n"          // bad digit
+                + "*1234*" + frame(1, 100, 700).substring(1)   // truncated, then a good frame
+                + "*123456789\r\n"         // too many digits
+                + "\u00ff\u0000garbage"
+                + frame(3, 16383, 2047);
+        byte[] data = input.getBytes(StandardCharsets.ISO_8859_1);
+
+        assertEquals(3, parser.parse(data, 0, data.length));
+        assertEquals(3, collector.frames.size());
+        assertEquals(8192, collector.frames.get(0)[1]);
+        assertEquals(100, collector.frames.get(1)[1]);
+        assertEquals(700, collector.frames.get(1)[2]);
+        assertEquals(3, collector.frames.get(2)[0]);
+        assertEquals(5, parser.getFramingErrors());
+        assertEquals(3, parser.getFrameCount());
+    }
+
+    private static long[] toLong(int[] a) {
+        long[] r = new long[a.length];
+        int i;
+
+        for (i = 0; i < a.length; i += 1) {
+            r[i] = a[i];
+        }
+        return r;
+    }
+}
@@ -0,0 +1,60 @@
+package info.altimeter.flightrecorder;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AltitudeFilterTest {
+    static final long PERIOD = 40000000L;
+
+    @Test
+    public void fusesBaroAndGnss() {
+        AltitudeFilter filter = new AltitudeFilter();
+        Random random = new Random(7);
+        double truth = 0;
+        int i;
+
+        /*
+         * Climbing at 1.5 m/s; the barometer reads 80 m high with 0.5 m noise,
+         * GNSS fixes once a second with 3 m noise
+         */
+        for (i = 0; i < 120 * 25; i += 1) {
+            long time = 1000000000L + i * PERIOD;
+            truth = 500 + 1.5 * i * PERIOD / 1e9;
+            filter.addBaro(time, truth + 80 + random.nextGaussian() * 0.5);
+            if (i % 25 == 0) {
+                filter.addGnss(time - 200000000L, truth - 0.3 + random.nextGaussian() * 3, 3);
+                filter.addGroundSpeed(time, 20 + random.nextGaussian() * 0.5, 0.5);
+            }
+        }
+
+        assertEquals(truth, filter.getAltitude(), 2);
+        assertEquals(1.5, filter.getClimbRate(), 0.2);
+        assertEquals(80, filter.getBaroBias(), 2);
+        assertTrue(filter.getAltitudeError() < 2);
+        assertEquals(20, filter.getGroundSpeed(), 0.3);
+        assertEquals(120 * 25, filter.getBaroUpdates());
+        assertEquals(120, filter.getGnssUpdates());
+    }
+
+    @Test
+    public void baroAloneTracksClimbRate() {
+        AltitudeFilter filter = new AltitudeFilter();
+        int i;
+
+        for (i = 0; i < 60 * 25; i += 1) {
+            double altitude = i < 30 * 25 ? 300 : 300 - 2.0 * (i - 30 * 25) * PERIOD / 1e9;
+            filter.addBaro(i * PERIOD, altitude);
+        }
+        assertEquals(-2.0, filter.getClimbRate(), 0.05);
+        assertFalse(filter.hasGroundSpeed());
+
+        /*
+         * A GNSS fix without vertical accuracy is not used
+         */
+        filter.addGnss(60 * 25 * PERIOD, 1000, 0);
+        assertEquals(0, filter.getGnssUpdates());
+    }
+}
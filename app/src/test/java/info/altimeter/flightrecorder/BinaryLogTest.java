@@ -0,0 +1,291 @@
+package info.altimeter.flightrecorder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Binary logs exported back to text must match the text logs byte for byte.
+ */
+public class BinaryLogTest {
+    static final long START = 123456789000L;
+
+    /**
+     * Writes the same samples through a text channel and a binary channel
+     *
+     * @return text log, binary log
+     */
+    private byte[][] record(LogLayout layout, long[] times, long[][] samples) {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        LogSink sink = new LogSink(START);
+        LogSink.Channel textChannel = sink.addChannel(layout, text, times.length);
+        LogSink.Channel binaryChannel = sink.addChannel(layout, binary,
+                new BinaryLogWriter(START).channel(0, layout), times.length);
+        int i;
+
+        for (i = 0; i < times.length; i += 1) {
+            assertTrue(textChannel.put(times[i], samples[i]));
+            assertTrue(binaryChannel.put(times[i], samples[i]));
+        }
+        sink.close();
+        return new byte[][] {text.toByteArray(), binary.toByteArray()};
+    }
+
+    private void checkExport(byte[][] logs, int count) throws Exception {
+        ByteArrayOutputStream exported = new ByteArrayOutputStream();
+        long n = LogExporter.export(new ByteArrayInputStream(logs[1]), exported,
+                LogExporter.ALL_CHANNELS);
+        assertEquals(count, n);
+        assertEquals(new String(logs[0], "US-ASCII"), new String(exported.toByteArray(), "US-ASCII"));
+    }
+
+    @Test
+    public void pressure_roundTrip() throws Exception {
+        Random random = new Random(4);
+        int count = 25 * 600;
+        long[] times = new long[count];
+        long[][] samples = new long[count][1];
+        float p = 1013.25f;
+        long t = START + 3000000;
+        int i;
+
+        for (i = 0; i < count; i += 1) {
+            t += 40000000 + random.nextInt(100000) - 50000;
+            p += (float) (random.nextGaussian() * 0.01);
+            times[i] = t;
+            samples[i][0] = LogLayout.real(p);
+        }
+
+        byte[][] logs = record(LogLayout.PRESSURE, times, samples);
+        checkExport(logs, count);
+        assertTrue("compression " + logs[0].length / (double) logs[1].length,
+                logs[1].length * 4 <= logs[0].length);
+    }
+
+    @Test
+    public void location_roundTrip() throws Exception {
+        Random random = new Random(5);
+        int count = 3600;
+        long[] times = new long[count];
+        long[][] samples = new long[count][7];
+        double lon = -122.0, lat = 37.5, alt = 20;
+        long t = START - 2000000000L;
+        int i;
+
+        for (i = 0; i < count; i += 1) {
+            t += 1000000000L + random.nextInt(1000) - 500;
+            lon += random.nextGaussian() * 0.0003;
+            lat += random.nextGaussian() * 0.0003;
+            alt += random.nextGaussian() * 2;
+            times[i] = t;
+            samples[i][0] = LogLayout.real(lon);
+            samples[i][1] = LogLayout.real(lat);
+            samples[i][2] = LogLayout.real(3 + random.nextFloat() * 2);
+            samples[i][3] = LogLayout.real(alt);
+            samples[i][4] = LogLayout.real(4 + random.nextFloat());
+            samples[i][5] = LogLayout.real(random.nextFloat() * 50);
+            samples[i][6] = LogLayout.real(random.nextFloat());
+        }
+        samples[10][1] = LogLayout.real(-0.0000001);
+        samples[11][3] = LogLayout.real(Double.NaN);
+        samples[12][5] = LogLayout.real(Float.POSITIVE_INFINITY);
+
+        byte[][] logs = record(LogLayout.LOCATION, times, samples);
+        checkExport(logs, count);
+        assertTrue(new String(logs[0], "US-ASCII").contains(" -0.000000 "));
+    }
+
+    @Test
+    public void airspeed_roundTrip() throws Exception {
+        Random random = new Random(6);
+        int count = 10000;
+        long[] times = new long[count];
+        long[][] samples = new long[count][3];
+        long t = START;
+        int i;
+
+        for (i = 0; i < count; i += 1) {
+            t += 20000000 + random.nextInt(2000000);
+            int diff = 8192 + random.nextInt(200) - 100;
+            int temp = 600 + random.nextInt(4);
+            times[i] = t;
+            samples[i][0] = random.nextInt(4);
+            samples[i][1] = LogLayout.real(1.0f * (diff - 8192) / 6554.0f);
+            samples[i][2] = LogLayout.real(((temp - 511) * 100.0f) / 1024.0f);
+        }
+
+        checkExport(record(LogLayout.AIRSPEED, times, samples), count);
+    }
+
+    @Test
+    public void reader_decodesValues() throws Exception {
+        long[] times = {START + 40000000, START + 80000000, START + 120000000};
+        long[][] samples = {
+                {LogLayout.real(1013.25)}, {LogLayout.real(1013.125)}, {LogLayout.real(-2.5)}
+        };
+        byte[][] logs = record(LogLayout.PRESSURE, times, samples);
+        BinaryLogReader reader = new BinaryLogReader(new ByteArrayInputStream(logs[1]));
+        double[] expected = {1013.25, 1013.125, -2.5};
+        int i;
+
+        assertEquals(START, reader.getStartTime());
+        for (i = 0; i < 3; i += 1) {
+            assertTrue(reader.next());
+            assertSame(LogLayout.PRESSURE, reader.getLayout());
+            assertEquals(times[i], reader.getTime());
+            assertEquals(expected[i], reader.getValue(0), 0);
+        }
+        assertFalse(reader.next());
+        assertEquals(logs[1].length, reader.getOffset());
+    }
+
+    @Test
+    public void container_interleavesInTimeOrder() throws Exception {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        ByteArrayOutputStream pressureText = new ByteArrayOutputStream();
+        ByteArrayOutputStream locationText = new ByteArrayOutputStream();
+        LogSink sink = new LogSink(START);
+        LogSink.Container container = sink.addContainer(file);
+        LogSink.Channel pressure = container.addChannel(LogLayout.PRESSURE);
+        LogSink.Channel location = container.addChannel(LogLayout.LOCATION);
+        LogSink.Channel pressureCopy = sink.addChannel(LogLayout.PRESSURE, pressureText);
+        LogSink.Channel locationCopy = sink.addChannel(LogLayout.LOCATION, locationText);
+        long[] p = new long[1];
+        long[] fix = new long[7];
+        int i;
+
+        /*
+         * Pressure arrives immediately, each GNSS fix 600 ms after its timestamp
+         */
+        for (i = 0; i < 2500; i += 1) {
+            long t = START + i * 40000000L;
+            p[0] = LogLayout.real(1000 - i * 0.01);
+            pressure.put(t, p);
+            pressureCopy.put(t, p);
+            if (i % 25 == 15) {
+                int k;
+                for (k = 0; k < 7; k += 1) {
+                    fix[k] = LogLayout.real(i + k);
+                }
+                location.put(t - 600000000L, fix);
+                locationCopy.put(t - 600000000L, fix);
+            }
+            if (i % 10 == 0) {
+                sink.drain();
+            }
+        }
+        sink.close();
+
+        BinaryLogReader reader = new BinaryLogReader(new ByteArrayInputStream(file.toByteArray()));
+        long last = Long.MIN_VALUE;
+        int count = 0;
+        while (reader.next()) {
+            assertTrue(reader.getTime() >= last);
+            last = reader.getTime();
+            count += 1;
+        }
+        assertEquals(2600, count);
+
+        ByteArrayOutputStream exported = new ByteArrayOutputStream();
+        LogExporter.export(new ByteArrayInputStream(file.toByteArray()), exported, 1);
+        assertEquals(locationText.toString("US-ASCII"), exported.toString("US-ASCII"));
+
+        reader = new BinaryLogReader(new ByteArrayInputStream(file.toByteArray()));
+        LogFormatter line = new LogFormatter();
+        while (reader.next(LogLayout.PRESSURE)) {
+            reader.format(line);
+        }
+        assertEquals(pressureText.toString("US-ASCII"), line.toString());
+        assertEquals(2500, pressure.getSamplesWritten());
+        assertEquals(100, location.getSamplesWritten());
+    }
+
+    @Test
+    public void container_twoSensorsOfOneLayout() throws Exception {
+        File dir = Files.createTempDirectory("container").toFile();
+        File file = new File(dir, "rec" + LogExporter.CONTAINER_SUFFIX);
+        LogSink sink = new LogSink(START);
+        LogSink.Container container = sink.addContainer(new FileOutputStream(file));
+        LogSink.Channel first = container.addChannel(LogLayout.AIRSPEED);
+        LogSink.Channel second = container.addChannel(LogLayout.AIRSPEED.withName("airspeed2"));
+        long[] sample = new long[3];
+        int i;
+
+        assertEquals(LogLayout.AIRSPEED.getCode(), LogLayout.AIRSPEED.withName("airspeed2").getCode());
+        for (i = 0; i < 100; i += 1) {
+            sample[1] = LogLayout.real(0.01 * i);
+            sample[2] = LogLayout.real(20.0);
+            assertTrue(first.put(START + i * 10000000L, sample));
+            if (i % 2 == 0) {
+                sample[1] = LogLayout.real(-0.01 * i);
+                assertTrue(second.put(START + i * 10000000L + 5000000L, sample));
+            }
+        }
+        sink.close();
+
+        LogExporter.exportFile(file);
+        File exported = new File(dir, "rec.airspeed.log");
+        File exported2 = new File(dir, "rec.airspeed2.log");
+        assertEquals(100, Files.readAllLines(exported.toPath()).size());
+        assertEquals(50, Files.readAllLines(exported2.toPath()).size());
+        assertTrue(Files.readAllLines(exported2.toPath()).get(1).contains("-0.0200"));
+
+        exported.delete();
+        exported2.delete();
+        file.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void exportFile_rotatedSegmentKeepsName() throws Exception {
+        File dir = Files.createTempDirectory("segments").toFile();
+        File file = new File(dir, "rec.pressure.0001.bin");
+        LogSink sink = new LogSink(START);
+        LogSink.Channel channel = sink.addChannel(LogLayout.PRESSURE, new FileOutputStream(file),
+                new BinaryLogWriter(START).channel(0, LogLayout.PRESSURE));
+        long[] sample = {LogLayout.real(1013.25)};
+
+        assertTrue(channel.put(START + 1000000000L, sample));
+        sink.close();
+
+        LogExporter.exportFile(file);
+        File exported = new File(dir, "rec.pressure.0001.log");
+        assertEquals(1, Files.readAllLines(exported.toPath()).size());
+        assertEquals(2, dir.list().length);
+
+        exported.delete();
+        file.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void exportFile_secondSensorFileKeepsName() throws Exception {
+        File dir = Files.createTempDirectory("airspeed2").toFile();
+        File file = new File(dir, "rec.airspeed2.bin");
+        LogLayout layout = LogLayout.AIRSPEED.withName("airspeed2");
+        LogSink sink = new LogSink(START);
+        LogSink.Channel channel = sink.addChannel(layout, new FileOutputStream(file),
+                new BinaryLogWriter(START).channel(0, layout));
+        long[] sample = {1, LogLayout.real(0.25), LogLayout.real(20.0)};
+
+        assertTrue(channel.put(START + 1000000000L, sample));
+        sink.close();
+
+        LogExporter.exportFile(file);
+        File exported = new File(dir, "rec.airspeed2.log");
+        assertTrue(Files.readAllLines(exported.toPath()).get(0).contains("+0.2500"));
+        assertEquals(2, dir.list().length);
+
+        exported.delete();
+        file.delete();
+        dir.delete();
+    }
+}
@@ -0,0 +1,90 @@
+package info.altimeter.flightrecorder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class CompressedLogTest {
+    static final long SECOND = 1000000000L;
+
+    /**
+     * 25 pressure samples per second for the given time, flushed every 4 seconds
+     */
+    private static byte[] record(ByteArrayOutputStream text, int seconds) throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        CompressedLogStream out = new CompressedLogStream(file, 0, 64 * 1024, 10 * SECOND);
+        LogSink sink = new LogSink(0);
+        LogSink.Channel channel = sink.addChannel(LogLayout.PRESSURE, out, 256);
+        LogSink.Channel plain = sink.addChannel(LogLayout.PRESSURE, text, 256);
+        long[] sample = new long[1];
+        int i;
+
+        for (i = 0; i < seconds * 25; i += 1) {
+            long time = i * SECOND / 25;
+            sample[0] = LogLayout.real(1013.25 - i * 0.001);
+            channel.put(time, sample);
+            plain.put(time, sample);
+            if (i % 100 == 99) {
+                sink.drain();
+                sink.flushAll();
+            }
+        }
+        sink.close();
+        assertEquals(seconds * 25, channel.getSamplesWritten());
+        assertTrue(out.getBytesOut() * 4 < out.getBytesIn());
+        return file.toByteArray();
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        byte[] file = record(text, 120);
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+
+        assertEquals(text.size(), LogExporter.decompress(new ByteArrayInputStream(file), inflated));
+        assertArrayEquals(text.toByteArray(), inflated.toByteArray());
+    }
+
+    @Test
+    public void windowSkipsBlocks() throws Exception {
+        byte[] file = record(new ByteArrayOutputStream(), 120);
+        CompressedLogReader reader = new CompressedLogReader(new ByteArrayInputStream(file));
+        reader.setWindow(50 * SECOND, 55 * SECOND);
+        ByteArrayOutputStream window = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+
+        while ((n = reader.read(buffer, 0, buffer.length)) > 0) {
+            window.write(buffer, 0, n);
+        }
+
+        /*
+         * Blocks are closed after a write that reaches 10 s: 0..11.96, 12..23.96, ...
+         */
+        assertEquals(1, reader.getBlocksRead());
+        assertEquals(9, reader.getBlocksSkipped());
+        String[] lines = window.toString("US-ASCII").split("\n");
+        assertEquals(300, lines.length);
+        assertTrue(lines[0], lines[0].startsWith("   0:00:48.000"));
+    }
+
+    @Test
+    public void truncatedBlockEndsStream() throws Exception {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        byte[] file = record(text, 30);
+        byte[] cut = new byte[file.length - 10];
+        System.arraycopy(file, 0, cut, 0, cut.length);
+        ByteArrayOutputStream inflated = new ByteArrayOutputStream();
+
+        long length = LogExporter.decompress(new ByteArrayInputStream(cut), inflated);
+        assertTrue(length > 0 && length < text.size());
+        String expected = text.toString("US-ASCII");
+        String actual = inflated.toString("US-ASCII");
+        assertTrue(expected.startsWith(actual));
+        assertTrue(actual.endsWith("\n"));
+    }
+}
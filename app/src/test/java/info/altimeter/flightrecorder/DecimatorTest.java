@@ -0,0 +1,122 @@
+package info.altimeter.flightrecorder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class DecimatorTest {
+    static final long START = 5000000000L;
+    static final long PERIOD = 40000000L;
+
+    static class Collector implements SensorSource.SampleListener {
+        final ArrayList<Long> times = new ArrayList<>();
+        final ArrayList<long[]> samples = new ArrayList<>();
+
+        @Override
+        public void onSample(long time, long[] values) {
+            times.add(time);
+            samples.add(values.clone());
+        }
+    }
+
+    private static double real(long bits) {
+        return Double.longBitsToDouble(bits);
+    }
+
+    @Test
+    public void bucketStatistics() {
+        Collector tier = new Collector();
+        Decimator decimator = new Decimator(LogLayout.AIRSPEED, START, Decimator.SECOND, tier);
+        long[] sample = new long[3];
+        int i;
+
+        /*
+         * 25 Hz for 2.5 s, differential pressure ramps by 0.001 psi per sample
+         */
+        for (i = 0; i < 63; i += 1) {
+            sample[0] = i % 2;
+            sample[1] = LogLayout.real(0.001 * i);
+            sample[2] = LogLayout.real(i == 30 ? Double.NaN : 20.0);
+            decimator.onSample(START + i * PERIOD, sample);
+        }
+        assertEquals(2, tier.samples.size());
+        decimator.flush();
+        assertEquals(3, tier.samples.size());
+
+        assertEquals(START, (long) tier.times.get(0));
+        assertEquals(START + Decimator.SECOND, (long) tier.times.get(1));
+        assertEquals(START + 2 * Decimator.SECOND, (long) tier.times.get(2));
+
+        long[] second = tier.samples.get(1);
+        assertEquals(25, second[0]);
+        assertEquals(0, second[1]);
+        assertEquals(1, second[2]);
+        assertEquals(13 / 25.0, real(second[3]), 1e-12);
+        assertEquals(0.025, real(second[4]), 1e-12);
+        assertEquals(0.049, real(second[5]), 1e-12);
+        assertEquals(0.037, real(second[6]), 1e-12);
+        assertEquals(20.0, real(second[9]), 0);
+
+        long[] last = tier.samples.get(2);
+        assertEquals(13, last[0]);
+        assertEquals(0.062, real(last[5]), 1e-12);
+    }
+
+    @Test
+    public void gapMarkerIsDropped() {
+        Collector tier = new Collector();
+        Decimator decimator = new Decimator(LogLayout.AIRSPEED, START, Decimator.SECOND, tier);
+        long[] sample = new long[3];
+        int i;
+
+        for (i = 0; i < 25; i += 1) {
+            if (i == 10) {
+                sample[0] = LogLayout.AIRSPEED_GAP;
+                sample[1] = LogLayout.real(Double.NaN);
+                sample[2] = LogLayout.real(Double.NaN);
+            } else {
+                sample[0] = 2;
+                sample[1] = LogLayout.real(0.01);
+                sample[2] = LogLayout.real(20.0);
+            }
+            decimator.onSample(START + i * PERIOD, sample);
+        }
+        decimator.flush();
+
+        assertEquals(1, tier.samples.size());
+        long[] second = tier.samples.get(0);
+        assertEquals(24, second[0]);
+        assertEquals(2, second[1]);
+        assertEquals(2, second[2]);
+        assertEquals(2.0, real(second[3]), 0);
+        assertEquals(0.01, real(second[6]), 1e-12);
+    }
+
+    @Test
+    public void tierLines() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LogSink sink = new LogSink(0);
+        LogLayout layout = LogLayout.PRESSURE.decimated("10s");
+        LogSink.Channel channel = sink.addChannel(layout, out);
+        Decimator decimator = new Decimator(LogLayout.PRESSURE, 0, 10 * Decimator.SECOND, channel);
+        long[] sample = new long[1];
+        int i;
+
+        assertEquals("pressure.10s", layout.getName());
+        sink.start();
+        for (i = 0; i < 40; i += 1) {
+            sample[0] = LogLayout.real(1000.0 + i);
+            decimator.onSample(i * 500000000L, sample);
+        }
+        decimator.flush();
+        sink.close();
+
+        String text = new String(out.toByteArray(), StandardCharsets.US_ASCII);
+        assertEquals("   0:00:00.000   20 1000.000 1019.000 1009.500\n"
+                + "   0:00:10.000   20 1020.000 1039.000 1029.500\n", text);
+    }
+}
@@ -0,0 +1,109 @@
+package info.altimeter.flightrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FlightComputerTest {
+    static final long PERIOD = 40000000L;
+
+    /**
+     * Inverse of FlightComputer.pressureAltitude()
+     */
+    private static double pressure(double altitude) {
+        return FlightComputer.P0 * Math.pow(1 - altitude / FlightComputer.ISA_HEIGHT,
+                1 / FlightComputer.ISA_EXPONENT);
+    }
+
+    @Test
+    public void standardAtmosphere() {
+        assertEquals(0, FlightComputer.pressureAltitude(1013.25), 1e-9);
+        assertEquals(1000, FlightComputer.pressureAltitude(898.75), 1);
+
+        /*
+         * 30 m/s at sea level density: q = 1/2 rho v^2 = 551.25 Pa
+         */
+        assertEquals(30, FlightComputer.indicatedAirspeed(5.5125), 0.05);
+        assertEquals(0, FlightComputer.indicatedAirspeed(-0.1), 0);
+
+        /*
+         * At 1000 m ISA the density ratio is 0.9075
+         */
+        double tas = FlightComputer.trueAirspeed(5.5125, 898.75, 8.5);
+        assertEquals(30 / Math.sqrt(0.9075), tas, 0.05);
+    }
+
+    @Test
+    public void liveValuesFromSamples() {
+        FlightComputer computer = new FlightComputer();
+        FlightData data = new FlightData();
+        long[] airspeed = new long[4];
+        long[] baro = new long[1];
+        int i;
+
+        for (i = 0; i <= 500; i += 1) {
+            long time = 1000000000L + i * PERIOD;
+            baro[0] = LogLayout.real(pressure(500 + 2.0 * i * PERIOD / 1e9));
+            computer.pressureInput().onSample(time, baro);
+            airspeed[0] = 0;
+            airspeed[1] = LogLayout.real(5.5125 * 100 / FlightComputer.PA_PER_PSI);
+            airspeed[2] = LogLayout.real(15.0);
+            airspeed[3] = -1;
+            computer.airspeedInput().onSample(time + PERIOD / 2, airspeed);
+            computer.process();
+        }
+
+        /*
+         * Not started, the final pass publishes the latest values
+         */
+        computer.run();
+        computer.read(data);
+
+        assertTrue(data.hasAirspeed() && data.hasPressure());
+        assertEquals(1000000000L + 500 * PERIOD + PERIOD / 2, data.getTime());
+        assertEquals(30, data.getIndicatedAirspeed(), 0.05);
+        assertTrue(data.getTrueAirspeed() > data.getIndicatedAirspeed());
+        assertEquals(540, data.getPressureAltitude(), 1.5);
+        assertEquals(2.0, data.getVerticalSpeed(), 0.01);
+        assertEquals(0, computer.getDropped());
+    }
+
+    @Test
+    public void indicatedAirspeedFromCount() {
+        FlightComputer computer = new FlightComputer();
+        FlightData data = new FlightData();
+        AirspeedCalibration calibration = new AirspeedCalibration(AirspeedCalibration.TYPE_A, 1.0f).compile();
+        long[] airspeed = new long[4];
+
+        computer.setAirspeedCalibration(calibration);
+        airspeed[1] = LogLayout.real(calibration.psi(9000));
+        airspeed[2] = LogLayout.real(15.0);
+        airspeed[3] = 9000;
+        computer.airspeedInput().onSample(1000000000L, airspeed);
+        computer.run();
+        computer.read(data);
+
+        assertEquals(calibration.ias(9000), data.getIndicatedAirspeed(), 0);
+    }
+
+    @Test
+    public void gapMarkerClearsAirspeed() {
+        FlightComputer computer = new FlightComputer();
+        FlightData data = new FlightData();
+        long[] airspeed = new long[4];
+
+        airspeed[1] = LogLayout.real(0.1);
+        airspeed[2] = LogLayout.real(15.0);
+        computer.airspeedInput().onSample(1000000000L, airspeed);
+        airspeed[0] = LogLayout.AIRSPEED_GAP;
+        airspeed[1] = LogLayout.real(Double.NaN);
+        airspeed[2] = LogLayout.real(Double.NaN);
+        airspeed[3] = -1;
+        computer.airspeedInput().onSample(1100000000L, airspeed);
+        computer.run();
+        computer.read(data);
+
+        assertFalse(data.hasAirspeed());
+        assertEquals(15.0, data.getTemperature(), 0);
+    }
+}
@@ -0,0 +1,79 @@
+package info.altimeter.flightrecorder;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class FlightPhaseTest {
+    static final long PERIOD = 100000000L;
+
+    final FlightPhase detector = new FlightPhase();
+    final FlightData data = new FlightData();
+    final ArrayList<Integer> changes = new ArrayList<>();
+    long time = 0;
+
+    /**
+     * Feeds constant values for the given number of seconds
+     */
+    private void fly(double seconds, double airspeed, double groundSpeed, double climb) {
+        int i;
+
+        data.hasAirspeed = true;
+        data.indicatedAirspeed = airspeed;
+        data.hasGroundSpeed = true;
+        data.groundSpeed = groundSpeed;
+        data.hasPressure = true;
+        data.verticalSpeed = climb;
+        for (i = 0; i < seconds * 1e9 / PERIOD; i += 1) {
+            detector.update(time, data);
+            time += PERIOD;
+        }
+    }
+
+    @Test
+    public void phasesOfAFlight() {
+        detector.setListener(new FlightPhase.Listener() {
+            @Override
+            public void onPhaseChange(long time, int phase) {
+                changes.add(phase);
+            }
+        });
+
+        fly(10, 0, 0, 0);
+        assertEquals(FlightPhase.GROUND_IDLE, detector.getPhase());
+        fly(30, 3, 5, 0);
+        assertEquals(FlightPhase.TAXI, detector.getPhase());
+
+        /*
+         * A short gust during the taxi is below the dwell time
+         */
+        fly(1, 20, 5, 0);
+        fly(10, 3, 5, 0);
+        assertEquals(FlightPhase.TAXI, detector.getPhase());
+
+        fly(60, 35, 35, 4);
+        assertEquals(FlightPhase.CLIMB, detector.getPhase());
+        fly(60, 45, 45, 0);
+        assertEquals(FlightPhase.CRUISE, detector.getPhase());
+
+        /*
+         * Alternating climb and sink, +-5 m/s every 2 s
+         */
+        int i;
+        for (i = 0; i < 10; i += 1) {
+            fly(2, 40, 40, i % 2 == 0 ? 5 : -5);
+        }
+        assertEquals(FlightPhase.MANEUVERING, detector.getPhase());
+
+        fly(60, 40, 40, -4);
+        assertEquals(FlightPhase.DESCENT, detector.getPhase());
+
+        assertEquals(FlightPhase.TAXI, (int) changes.get(0));
+        assertEquals(FlightPhase.DESCENT, (int) changes.get(changes.size() - 1));
+        assertTrue(changes.contains(FlightPhase.MANEUVERING));
+        assertTrue(detector.report(0).startsWith("# time phase"));
+        assertTrue(detector.report(0).contains("\n0.000 ground_idle 5000 10\n"));
+    }
+}
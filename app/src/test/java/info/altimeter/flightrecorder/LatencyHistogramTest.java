@@ -0,0 +1,85 @@
+package info.altimeter.flightrecorder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void bucketsCoverAllValues() {
+        long value;
+        int last = -1;
+
+        for (value = 0; value < 1L << 20; value += 1 + value / 200) {
+            int i = LatencyHistogram.index(value);
+            assertTrue(i >= last);
+            assertTrue(value <= LatencyHistogram.highestValue(i));
+            assertTrue(i == 0 || value > LatencyHistogram.highestValue(i - 1));
+            last = i;
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.index(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Random random = new Random(3);
+        long[] values = new long[100000];
+        int i;
+
+        for (i = 0; i < values.length; i += 1) {
+            values[i] = 40000000L + (long) (random.nextGaussian() * 500000);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[0], histogram.getMin());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        assertEquals(values[values.length / 2], histogram.getValueAtPercentile(50), 40000000 * 0.04);
+        assertEquals(values[values.length * 99 / 100], histogram.getValueAtPercentile(99), 40000000 * 0.04);
+        assertEquals(500000, histogram.getStdDev(), 10000);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void sinkRecordsIntervalsAndLatency() {
+        LogSink sink = new LogSink(0);
+        final long[] now = new long[1];
+        sink.setClock(new LogSink.Clock() {
+            @Override
+            public long now() {
+                return now[0];
+            }
+        });
+        LogSink.Channel channel = sink.addChannel(LogLayout.PRESSURE, new ByteArrayOutputStream());
+        long[] sample = new long[1];
+        int i;
+
+        for (i = 0; i < 100; i += 1) {
+            channel.put(i * 40000000L, sample);
+        }
+        now[0] = 99 * 40000000L + 5000000L;
+        sink.close();
+
+        assertEquals(25.0, channel.getSampleRate(), 1e-9);
+        assertEquals(99, channel.getIntervals().getCount());
+        assertEquals(0, channel.getIntervals().getStdDev(), 1e-3);
+        assertEquals(100, channel.getLatency().getCount());
+        assertEquals(5000000L, channel.getLatency().getMin());
+        assertEquals(99 * 40000000L + 5000000L, channel.getLatency().getMax());
+
+        RecordingMetrics metrics = new RecordingMetrics();
+        metrics.addChannel(channel, 40000000L);
+        String report = metrics.report();
+        assertTrue(report, report.startsWith("pressure: 100 samples, 25.00/s (requested 25.00/s)\n"));
+        assertTrue(report, report.contains("written 100, dropped 0"));
+    }
+}
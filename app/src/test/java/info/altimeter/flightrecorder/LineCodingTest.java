@@ -0,0 +1,49 @@
+package info.altimeter.flightrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LineCodingTest {
+    @Test
+    public void encodesCdcLayout() {
+        byte[] data = new byte[LineCoding.SIZE];
+
+        new LineCoding(115200, 8, LineCoding.PARITY_NONE, LineCoding.STOP_1).toBytes(data);
+        assertArrayEquals(new byte[] {0x00, (byte) 0xC2, 0x01, 0x00, 0, 0, 8}, data);
+
+        new LineCoding(9600, 7, LineCoding.PARITY_EVEN, LineCoding.STOP_2).toBytes(data);
+        assertArrayEquals(new byte[] {(byte) 0x80, 0x25, 0x00, 0x00, 2, 2, 7}, data);
+        assertEquals("9600 7E2", LineCoding.fromBytes(data).toString());
+    }
+
+    @Test
+    public void parsesText() {
+        assertEquals(LineCoding.ARDUINO, LineCoding.parse("115200 8N1"));
+        assertEquals(new LineCoding(230400, 8, LineCoding.PARITY_ODD, LineCoding.STOP_1_5),
+                LineCoding.parse(" 230400  8o1.5 "));
+        assertEquals("230400 8O1.5", LineCoding.parse("230400 8O1.5").toString());
+
+        String[] bad = {"", "9600", "9600 8X1", "9600 8N3", "fast 8N1", "0 8N1", "9600 9N1"};
+        for (String text : bad) {
+            try {
+                LineCoding.parse(text);
+                fail(text);
+            } catch (IllegalArgumentException e) {
+                // OK
+            }
+        }
+    }
+
+    @Test
+    public void frameRateCoversLineTime() {
+        int size = AirspeedFrameParser.FRAME_SIZE;
+
+        assertEquals(87, LineCoding.DEFAULT.maxFrameRate(size));
+        assertEquals(1047, LineCoding.ARDUINO.maxFrameRate(size));
+        assertEquals(872, LineCoding.parse("115200 8E2").maxFrameRate(size));
+        for (LineCoding choice : LineCoding.CHOICES) {
+            assertEquals(choice, LineCoding.parse(choice.format()));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package info.altimeter.flightrecorder;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * LogFormatter must produce exactly what String.format used to write to the logs.
+ */
+public class LogFormatterTest {
+    private static final String[] PATTERNS = {
+            "%+11.6f", "%11.6f", "%+7.1f", "%7.3f", "%+8.4f", "%+5.1f"
+    };
+    private static final int[][] SPECS = {
+            {11, 6, 1}, {11, 6, 0}, {7, 1, 1}, {7, 3, 0}, {8, 4, 1}, {5, 1, 1}
+    };
+
+    LogFormatter formatter = new LogFormatter();
+
+    private void checkFixed(double value) {
+        int i;
+
+        for (i = 0; i < PATTERNS.length; i += 1) {
+            String expected = String.format(Locale.US, PATTERNS[i], value);
+            formatter.reset();
+            formatter.appendFixed(value, SPECS[i][0], SPECS[i][1], SPECS[i][2] != 0);
+            assertEquals(PATTERNS[i] + " of " + value, expected, formatter.toString());
+        }
+    }
+
+    private void checkTime(long ns) {
+        long ms = ns / 1000000;
+        long s = ms / 1000;
+        ms %= 1000;
+        long m = s / 60;
+        s %= 60;
+        long h = m / 60;
+        m %= 60;
+        String expected = String.format(Locale.US, "%4d:%02d:%02d.%03d", h, m, s, ms);
+
+        formatter.reset();
+        formatter.appendTime(ns);
+        assertEquals(expected, formatter.toString());
+    }
+
+    @Test
+    public void time_matchesFormat() {
+        Random random = new Random(1);
+        int i;
+
+        checkTime(0);
+        checkTime(999999);
+        checkTime(3599999999999L);
+        checkTime(3600000000000L);
+        checkTime(-5000000L);
+        checkTime(-7261000000000L);
+        checkTime(400L * 3600 * 1000000000L);
+        for (i = 0; i < 10000; i += 1) {
+            checkTime((long) (random.nextDouble() * 200 * 3600e9) - 3600000000000L);
+        }
+    }
+
+    @Test
+    public void integer_matchesFormat() {
+        long[] values = {0, 1, 3, -1, -5, 42, -42, 12345, Long.MAX_VALUE, Long.MIN_VALUE};
+
+        for (long v : values) {
+            formatter.reset();
+            formatter.appendInt(v, 0, false);
+            assertEquals(String.format(Locale.US, "%d", v), formatter.toString());
+            formatter.reset();
+            formatter.appendInt(v, 4, false);
+            assertEquals(String.format(Locale.US, "%4d", v), formatter.toString());
+            if (v != Long.MIN_VALUE) {
+                formatter.reset();
+                formatter.appendInt(v, 3, true);
+                assertEquals(String.format(Locale.US, "%03d", v), formatter.toString());
+            }
+        }
+    }
+
+    @Test
+    public void fixed_specialValues() {
+        double[] values = {
+                0.0, -0.0, 0.5, -0.5, 0.05, 0.15, 0.25, 0.35, 1.45, 2.675,
+                0.0000005, -0.0000005, 0.00000049, 1e-300, -1e-300, 999.9995, 9.99995,
+                179.9999995, -179.9999995, 1013.2505, 1e14, -1e14, 1e20,
+                Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.MIN_VALUE, Double.MAX_VALUE
+        };
+
+        for (double v : values) {
+            checkFixed(v);
+        }
+    }
+
+    @Test
+    public void fixed_randomDoubles() {
+        Random random = new Random(2);
+        int i;
+
+        for (i = 0; i < 20000; i += 1) {
+            checkFixed((random.nextDouble() - 0.5) * 360);
+            checkFixed((random.nextDouble() - 0.5) * 20000);
+        }
+    }
+
+    @Test
+    public void fixed_randomFloats() {
+        Random random = new Random(3);
+        int i;
+
+        for (i = 0; i < 20000; i += 1) {
+            checkFixed(random.nextFloat() * 1100);
+            checkFixed((random.nextFloat() - 0.5f) * 2);
+            checkFixed((float) (random.nextInt(2000000) / 1000.0));
+        }
+    }
+
+    @Test
+    public void fixed_decimalTies() {
+        int i;
+
+        for (i = -50000; i <= 50000; i += 1) {
+            checkFixed(i / 100000.0 + 0.000005);
+            checkFixed(i / 2000.0);
+            checkFixed((float) (i / 2000.0));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package info.altimeter.flightrecorder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LogSegmentsTest {
+    static final long START = 1000000000L;
+    static final long PERIOD = 40000000L;
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), "US-ASCII");
+    }
+
+    private static void record(LogSink sink, LogSink.Channel[] channels, int count) {
+        long[] sample = new long[1];
+        int i;
+
+        for (i = 0; i < count; i += 1) {
+            sample[0] = LogLayout.real(1000 - i * 0.001);
+            for (LogSink.Channel channel : channels) {
+                assertTrue(channel.put(START + i * PERIOD, sample));
+            }
+            if (i % 100 == 99) {
+                sink.drain();
+                sink.flushAll();
+            }
+        }
+        sink.close();
+    }
+
+    @Test
+    public void textSegmentsConcatenateToLog() throws Exception {
+        File dir = Files.createTempDirectory("segments").toFile();
+        LogSegments segments = new LogSegments(new File(dir, "test.pressure").getPath(), ".log", START);
+        ByteArrayOutputStream whole = new ByteArrayOutputStream();
+        LogSink sink = new LogSink(START);
+        segments.setMaxBytes(10000);
+        segments.setMaxDuration(0);
+        LogSink.Channel segmented = sink.addChannel(LogLayout.PRESSURE, segments, null, 256);
+        LogSink.Channel plain = sink.addChannel(LogLayout.PRESSURE, whole, 256);
+
+        record(sink, new LogSink.Channel[] {segmented, plain}, 3000);
+
+        StringBuilder text = new StringBuilder();
+        int i;
+        assertTrue(segments.getSegmentCount() > 5);
+        for (i = 0; i < segments.getSegmentCount(); i += 1) {
+            text.append(read(segments.getFile(i)));
+        }
+        assertEquals(whole.toString("US-ASCII"), text.toString());
+        assertEquals("test.pressure.log", segments.getFile(0).getName());
+        assertEquals("test.pressure.0001.log", segments.getFile(1).getName());
+
+        SegmentIndex index = SegmentIndex.read(segments.getIndexFile());
+        assertEquals(START, index.getStartTime());
+        assertEquals(segments.getSegmentCount(), index.getEntries().size());
+        long samples = 0;
+        for (SegmentIndex.Entry entry : index.getEntries()) {
+            assertTrue(entry.isIndexed());
+            assertEquals(entry.bytes, entry.file.length());
+            samples += entry.samples;
+        }
+        assertEquals(3000, samples);
+    }
+
+    @Test
+    public void binarySegmentsAreSelfContained() throws Exception {
+        File dir = Files.createTempDirectory("segments").toFile();
+        LogSegments segments = new LogSegments(new File(dir, "test.flight").getPath(), ".bin", START);
+        ByteArrayOutputStream whole = new ByteArrayOutputStream();
+        LogSink sink = new LogSink(START);
+        segments.setMaxBytes(0);
+        segments.setMaxDuration(10 * 1000000000L);
+        LogSink.Container container = sink.addContainer(segments);
+        container.setReorderWindow(0);
+        LogSink.Channel binary = container.addChannel(LogLayout.PRESSURE, 256);
+        LogSink.Channel plain = sink.addChannel(LogLayout.PRESSURE, whole, 256);
+
+        record(sink, new LogSink.Channel[] {binary, plain}, 3000);
+
+        SegmentIndex index = SegmentIndex.read(segments.getIndexFile());
+        List<SegmentIndex.Entry> entries = index.getEntries();
+        StringBuilder text = new StringBuilder();
+
+        /*
+         * Writes happen every 4 s, so each segment spans 12 s; the empty
+         * segment opened after the last write is removed
+         */
+        assertEquals(10, entries.size());
+        assertFalse(segments.getFile(10).exists());
+        for (SegmentIndex.Entry entry : entries) {
+            ByteArrayOutputStream exported = new ByteArrayOutputStream();
+            LogExporter.export(new FileInputStream(entry.file), exported, LogExporter.ALL_CHANNELS);
+            text.append(exported.toString("US-ASCII"));
+        }
+        assertEquals(whole.toString("US-ASCII"), text.toString());
+        assertEquals(12 * 1000000000L, entries.get(1).firstTime);
+
+        List<SegmentIndex.Entry> found = index.find(35 * 1000000000L, 45 * 1000000000L);
+        assertEquals(2, found.size());
+        assertEquals(2, found.get(0).number);
+        assertEquals(3, found.get(1).number);
+    }
+
+    @Test
+    public void indexListsUnfinishedSegment() throws Exception {
+        File dir = Files.createTempDirectory("segments").toFile();
+        LogSegments segments = new LogSegments(new File(dir, "test.airspeed").getPath(), ".log", START);
+
+        segments.next().close();
+        segments.sample(START + 5 * PERIOD, 0);
+        segments.finish();
+        segments.next().close();
+
+        List<SegmentIndex.Entry> entries = SegmentIndex.read(segments.getIndexFile()).getEntries();
+        assertEquals(2, entries.size());
+        assertFalse(entries.get(1).isIndexed());
+        assertEquals(1, SegmentIndex.read(segments.getIndexFile()).find(Long.MAX_VALUE - 1, Long.MAX_VALUE).size());
+    }
+}
@@ -0,0 +1,133 @@
+package info.altimeter.flightrecorder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class LogSinkTest {
+    @Test
+    public void ring_preservesOrder() {
+        SampleRing ring = new SampleRing(5, 2);
+        long[] sample = new long[2];
+        int i;
+
+        assertEquals(8, ring.capacity());
+        for (i = 0; i < 8; i += 1) {
+            sample[0] = i;
+            sample[1] = -i;
+            assertTrue(ring.offer(i * 10, sample));
+        }
+        assertFalse(ring.offer(80, sample));
+        assertEquals(8, ring.size());
+
+        for (i = 0; i < 8; i += 1) {
+            assertTrue(ring.peek());
+            assertEquals(i * 10, ring.peekTime());
+            assertEquals(i * 10, ring.take(sample));
+            assertEquals(i, sample[0]);
+            assertEquals(-i, sample[1]);
+        }
+        assertFalse(ring.peek());
+    }
+
+    @Test
+    public void sink_acceptsConcurrentProducers() throws Exception {
+        final int producers = 4;
+        final int count = 20000;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final LogSink sink = new LogSink(1000);
+        sink.setFlushSize(4096);
+        sink.setPollInterval(1000000);
+        final LogSink.Channel channel = sink.addChannel(LogLayout.PRESSURE, out, 1 << 16);
+        final CountDownLatch done = new CountDownLatch(producers);
+        int i;
+
+        sink.start();
+        for (i = 0; i < producers; i += 1) {
+            final int id = i;
+            new Thread() {
+                @Override
+                public void run() {
+                    long[] sample = new long[1];
+                    int k;
+                    for (k = 0; k < count; k += 1) {
+                        sample[0] = LogLayout.real(1000 + k * 0.001);
+                        channel.put(1000 + (k * producers + id) * 40000000L, sample);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+        sink.close();
+
+        assertEquals(producers * count, channel.getSamplesWritten() + channel.getDropped());
+        assertEquals(out.size(), channel.getBytesWritten());
+
+        String[] lines = out.toString("US-ASCII").split("\n");
+        assertEquals(channel.getSamplesWritten(), lines.length);
+        for (String line : lines) {
+            assertEquals(23, line.length());
+        }
+    }
+
+    @Test
+    public void sink_countsDropsWhenWriterStalls() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        OutputStream stalled = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+        LogSink sink = new LogSink(0);
+        sink.setFlushSize(1);
+        sink.setPollInterval(1000000);
+        LogSink.Channel channel = sink.addChannel(LogLayout.PRESSURE, stalled, 16);
+        long[] sample = {LogLayout.real(1013.25)};
+        int i;
+
+        sink.start();
+        assertTrue(channel.put(0, sample));
+        while (channel.ring.size() > 0) {
+            Thread.sleep(1);
+        }
+        for (i = 0; i < 100; i += 1) {
+            channel.put(i, sample);
+        }
+        release.countDown();
+        sink.close();
+
+        assertEquals(100 - 16, channel.getDropped());
+        assertEquals(1, channel.getBackpressureEvents());
+        assertEquals(17, channel.getSamplesWritten());
+    }
+
+    @Test
+    public void sink_formatsLayouts() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LogSink sink = new LogSink(5000000000L);
+        LogSink.Channel channel = sink.addChannel(LogLayout.AIRSPEED, out);
+        long[] sample = {2, LogLayout.real(-0.0123f), LogLayout.real(21.5f)};
+
+        channel.put(5000000000L + 3723004000000L, sample);
+        sink.close();
+
+        assertEquals("   1:02:03.0042  -0.0123 +21.5\n",
+                new String(out.toByteArray(), StandardCharsets.US_ASCII));
+    }
+}
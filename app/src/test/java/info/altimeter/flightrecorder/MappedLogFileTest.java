@@ -0,0 +1,90 @@
+package info.altimeter.flightrecorder;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class MappedLogFileTest {
+    private static byte[] data(int n, int seed) {
+        byte[] b = new byte[n];
+        int i;
+
+        for (i = 0; i < n; i += 1) {
+            b[i] = (byte) ('a' + (i * 7 + seed) % 26);
+        }
+        return b;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        return Files.readAllBytes(file.toPath());
+    }
+
+    @Test
+    public void closeTruncatesToWrittenLength() throws Exception {
+        File dir = Files.createTempDirectory("mapped").toFile();
+        File file = new File(dir, "test.pressure.log");
+        MappedLogFile out = new MappedLogFile(file, 4096, MappedLogFile.EXTEND);
+        byte[] a = data(10000, 1);
+        byte[] b = data(3, 2);
+
+        out.write(a, 0, a.length);
+        assertTrue(file.length() >= 12288);
+        out.write(b, 0, b.length);
+        out.write('\n');
+        out.close();
+
+        byte[] written = read(file);
+        assertEquals(10004, written.length);
+        assertEquals(a[9999], written[9999]);
+        assertEquals('\n', written[10003]);
+        assertFalse(MappedLogFile.commitFile(file).exists());
+        assertEquals(-1, MappedLogFile.recover(file));
+    }
+
+    @Test
+    public void recoverCutsToCommittedLength() throws Exception {
+        File dir = Files.createTempDirectory("mapped").toFile();
+        File file = new File(dir, "test.airspeed.bin");
+        MappedLogFile out = new MappedLogFile(file, 4096, MappedLogFile.EXTEND);
+        byte[] a = data(5000, 3);
+
+        out.write(a, 0, a.length);
+        out.flush();
+        out.write(a, 0, 100);
+
+        /*
+         * The process dies here: the file still has its preallocated size
+         */
+        assertEquals(8192, file.length());
+        assertEquals(5000, MappedLogFile.readCommitted(file));
+        assertEquals(1, MappedLogFile.recoverAll(dir));
+        assertEquals(5000, file.length());
+        assertArrayEquals(a, read(file));
+        assertFalse(MappedLogFile.commitFile(file).exists());
+        out.raf.close();
+        out.commitRaf.close();
+    }
+
+    @Test
+    public void recoverWithoutCommitStripsPadding() throws Exception {
+        File dir = Files.createTempDirectory("mapped").toFile();
+        File file = new File(dir, "test.location.log");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        byte[] a = data(70000, 4);
+
+        raf.write(a);
+        raf.setLength(200000);
+        raf.close();
+        RandomAccessFile commit = new RandomAccessFile(MappedLogFile.commitFile(file), "rw");
+        commit.write(new byte[] {'F', 'R', 'C', 'L', 0, 0});
+        commit.close();
+
+        assertEquals(70000, MappedLogFile.recover(file));
+        assertEquals(70000, file.length());
+    }
+}
@@ -0,0 +1,84 @@
+package info.altimeter.flightrecorder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class RawAirspeedConverterTest {
+    static final long START = 123456789000L;
+
+    static int word(int stat, int diff, int temp) {
+        return (stat << 30) | (diff << 16) | (temp << 5);
+    }
+
+    @Test
+    public void convertMatchesSensor() {
+        AirspeedCalibration calibration = new AirspeedCalibration(AirspeedCalibration.TYPE_B, 5.0f, 3.5f);
+        long[] out = new long[4];
+
+        RawAirspeedConverter.convert(RawAirspeedConverter.sample(word(3, 9000, 1500)), calibration, out);
+        assertEquals(3, out[0]);
+        assertEquals(calibration.psi(9000), Double.longBitsToDouble(out[1]), 0);
+        assertEquals(calibration.celsius(1500), Double.longBitsToDouble(out[2]), 0);
+        assertEquals(9000, out[LogLayout.AIRSPEED_COUNT]);
+
+        RawAirspeedConverter.convert(LogLayout.AIRSPEED_GAP, calibration, out);
+        assertEquals(LogLayout.AIRSPEED_GAP, out[0]);
+        assertTrue(Double.isNaN(Double.longBitsToDouble(out[1])));
+        assertEquals(-1, out[LogLayout.AIRSPEED_COUNT]);
+        assertEquals(3723004000000L, RawAirspeedConverter.parseTime("1:02:03.004"));
+    }
+
+    @Test
+    public void rawLogExportsAsAirspeedLog() throws Exception {
+        File dir = Files.createTempDirectory("raw").toFile();
+        File file = new File(dir, "rec" + LogExporter.CONTAINER_SUFFIX);
+        File sidecar = new File(dir, "rec.airspeed" + RawAirspeedConverter.CALIBRATION_SUFFIX);
+        AirspeedCalibration calibration = new AirspeedCalibration(AirspeedCalibration.TYPE_A, 1.0f, -2.5f);
+        ByteArrayOutputStream rawText = new ByteArrayOutputStream();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        LogSink sink = new LogSink(START);
+        LogSink.Container container = sink.addContainer(new FileOutputStream(file));
+        LogSink.Channel raw = container.addChannel(LogLayout.AIRSPEED_RAW, 200);
+        LogSink.Channel text = sink.addChannel(LogLayout.AIRSPEED_RAW, rawText, 200);
+        LogSink.Channel converted = sink.addChannel(LogLayout.AIRSPEED, expected, 200);
+        RawAirspeedConverter converter = new RawAirspeedConverter(calibration, converted);
+        long[] sample = new long[1];
+        int i;
+
+        for (i = 0; i < 100; i += 1) {
+            long time = START + i * 40000000L;
+            sample[0] = i == 50 ? LogLayout.AIRSPEED_GAP
+                    : RawAirspeedConverter.sample(word(i % 4, 8000 + 7 * i, 1000 + i));
+            assertTrue(raw.put(time, sample));
+            assertTrue(text.put(time, sample));
+            converter.onSample(time, sample);
+        }
+        sink.close();
+
+        FileOutputStream out = new FileOutputStream(sidecar);
+        out.write(calibration.format().getBytes(StandardCharsets.US_ASCII));
+        out.close();
+        LogExporter.exportFile(file);
+        File exported = new File(dir, "rec.airspeed.log");
+        assertEquals(expected.toString("US-ASCII"),
+                new String(Files.readAllBytes(exported.toPath()), StandardCharsets.US_ASCII));
+
+        ByteArrayOutputStream fromText = new ByteArrayOutputStream();
+        assertEquals(100, RawAirspeedConverter.convertText(
+                new ByteArrayInputStream(rawText.toByteArray()), fromText, calibration));
+        assertEquals(expected.toString("US-ASCII"), fromText.toString("US-ASCII"));
+
+        exported.delete();
+        sidecar.delete();
+        file.delete();
+        dir.delete();
+    }
+}
@@ -0,0 +1,72 @@
+package info.altimeter.flightrecorder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+public class SensorSourceTest {
+    static final long START = 5000000000L;
+
+    @Test
+    public void synthetic_feedsSinkAtHighRate() {
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        LogSink sink = new LogSink(START);
+        LogSink.Channel channel = sink.addChannel(LogLayout.AIRSPEED, text);
+        SyntheticSource source = new SyntheticSource(LogLayout.AIRSPEED, 5000, 1);
+
+        source.setStartTime(START);
+        source.setCount(20000);
+        source.setPaced(false);
+        sink.start();
+        assertTrue(source.start(channel));
+        source.await();
+        sink.close();
+
+        assertEquals(20000, source.getSampleCount());
+        assertEquals(20000, channel.getSamplesWritten() + channel.getDropped());
+        String[] lines = text.toString().split("\n");
+        assertEquals(channel.getSamplesWritten(), lines.length);
+        assertTrue(lines[0], lines[0].startsWith("   0:00:00.000"));
+    }
+
+    @Test
+    public void replay_reproducesRecording() throws Exception {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        ByteArrayOutputStream original = new ByteArrayOutputStream();
+        LogSink sink = new LogSink(START);
+        LogSink.Container container = sink.addContainer(file);
+        final LogSink.Channel pressure = container.addChannel(LogLayout.PRESSURE, 8192);
+        final LogSink.Channel copy = sink.addChannel(LogLayout.PRESSURE, original, 8192);
+        SyntheticSource source = new SyntheticSource(LogLayout.PRESSURE, 25, 2);
+
+        source.setStartTime(START + 1000000);
+        source.setCount(5000);
+        source.setPaced(false);
+        source.start(new SensorSource.SampleListener() {
+            @Override
+            public void onSample(long time, long[] values) {
+                pressure.put(time, values);
+                copy.put(time, values);
+            }
+        });
+        source.await();
+        sink.close();
+
+        ByteArrayOutputStream replayed = new ByteArrayOutputStream();
+        sink = new LogSink(START);
+        LogSink.Channel channel = sink.addChannel(LogLayout.PRESSURE, replayed, 8192);
+        ReplaySource replay = new ReplaySource(
+                new BinaryLogReader(new ByteArrayInputStream(file.toByteArray())), LogLayout.PRESSURE);
+        replay.setSpeed(0);
+        assertTrue(replay.start(channel));
+        replay.await();
+        sink.close();
+
+        assertNull(replay.getError());
+        assertEquals(5000, replay.getSampleCount());
+        assertEquals(original.toString("US-ASCII"), replayed.toString("US-ASCII"));
+    }
+}
@@ -0,0 +1,82 @@
+package info.altimeter.flightrecorder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TimeIndexTest {
+    static final long START = 1000000000L;
+    static final long PERIOD = 40000000L;
+    static final long SECOND = 1000000000L;
+
+    @Test
+    public void searchFindsEnclosingEntries() {
+        TimeIndex index = new TimeIndex(START, 10);
+        int i;
+
+        for (i = 0; i < 1000; i += 1) {
+            index.add(START + i * PERIOD, i * 20L);
+        }
+        assertEquals(100, index.size());
+        assertEquals(0, index.floorOffset(-1));
+        assertEquals(200, index.floorOffset(10 * PERIOD));
+        assertEquals(200, index.floorOffset(19 * PERIOD));
+        assertEquals(400, index.ceilingOffset(10 * PERIOD));
+        assertEquals(-1, index.ceilingOffset(990 * PERIOD));
+    }
+
+    @Test
+    public void rangeAcrossSegments() throws Exception {
+        File dir = Files.createTempDirectory("times").toFile();
+        LogSegments segments = new LogSegments(new File(dir, "test.pressure").getPath(), ".log", START);
+        ByteArrayOutputStream whole = new ByteArrayOutputStream();
+        LogSink sink = new LogSink(START);
+        long[] sample = new long[1];
+        int i;
+
+        segments.setMaxBytes(0);
+        segments.setMaxDuration(30 * SECOND);
+        segments.setTimeIndex(16);
+        LogSink.Channel segmented = sink.addChannel(LogLayout.PRESSURE, segments, null, 256);
+        LogSink.Channel plain = sink.addChannel(LogLayout.PRESSURE, whole, 256);
+        for (i = 0; i < 3000; i += 1) {
+            sample[0] = LogLayout.real(1000 - i * 0.001);
+            segmented.put(START + i * PERIOD, sample);
+            plain.put(START + i * PERIOD, sample);
+            if (i % 100 == 99) {
+                sink.drain();
+                sink.flushAll();
+            }
+        }
+        sink.close();
+        assertTrue(segments.getSegmentCount() > 2);
+        assertTrue(TimeIndex.indexFile(segments.getFile(1)).exists());
+
+        /*
+         * 25 to 45 s spans the first and second segment
+         */
+        SegmentIndex index = SegmentIndex.read(segments.getIndexFile());
+        ByteArrayOutputStream range = new ByteArrayOutputStream();
+        index.copyRange(25 * SECOND, 45 * SECOND, range);
+        String[] all = whole.toString("US-ASCII").split("\n");
+        String[] lines = range.toString("US-ASCII").split("\n");
+        int first = 25 * 25;
+        int last = 45 * 25;
+        assertTrue(lines.length >= last - first + 1);
+        assertTrue(lines.length <= last - first + 1 + 2 * 16);
+
+        int offset = Arrays.asList(all).indexOf(lines[0]);
+        assertTrue(offset <= first && offset > first - 16);
+        for (i = 0; i < lines.length; i += 1) {
+            assertEquals(all[offset + i], lines[i]);
+        }
+
+        assertEquals(1, LogExporter.extractRange(dir, "test", 25 * SECOND, 45 * SECOND));
+        assertTrue(new File(dir, "test.pressure.25-45.log").exists());
+    }
+}
@@ -0,0 +1,80 @@
+package info.altimeter.flightrecorder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TimebaseTest {
+    static final long MS = 1000000L;
+
+    static class Capture implements SensorSource.SampleListener {
+        long time;
+
+        @Override
+        public void onSample(long time, long[] values) {
+            this.time = time;
+        }
+    }
+
+    @Test
+    public void stampsOnTheRecordingClockPassThrough() {
+        final long[] now = new long[1];
+        Timebase timebase = new Timebase(0, new LogSink.Clock() {
+            @Override
+            public long now() {
+                return now[0];
+            }
+        });
+        Capture capture = new Capture();
+        Timebase.Channel channel = timebase.channel("pressure", capture, 0, 1000 * MS);
+        int i;
+
+        for (i = 0; i < 100; i += 1) {
+            now[0] = 5000 * MS + i * 40 * MS + (i % 7) * MS;
+            channel.onSample(5000 * MS + i * 40 * MS, null);
+            assertEquals(5000 * MS + i * 40 * MS, capture.time);
+        }
+        assertEquals(0, channel.getOffset());
+        assertEquals(0, channel.getLatency().getMin());
+        assertEquals(6 * MS, channel.getLatency().getMax());
+    }
+
+    @Test
+    public void offsetClockIsCorrected() {
+        final long[] now = new long[1];
+        Timebase timebase = new Timebase(0, new LogSink.Clock() {
+            @Override
+            public long now() {
+                return now[0];
+            }
+        });
+        Capture capture = new Capture();
+        Timebase.Channel channel = timebase.channel("pressure", capture, 2 * MS, 1000 * MS);
+        long skew = 3600L * 1000 * MS;
+        int i;
+
+        /*
+         * Sensor stamps an hour behind the recording clock, delivered 5 ms late
+         * and now and then 2 ms late
+         */
+        for (i = 0; i < 100; i += 1) {
+            long time = 10000 * MS + i * 40 * MS;
+            now[0] = time + (i % 10 == 9 ? 2 * MS : 5 * MS);
+            channel.onSample(time - skew, null);
+        }
+        assertEquals(skew, channel.getOffset());
+        assertEquals(10000 * MS + 99 * 40 * MS, capture.time);
+    }
+
+    @Test
+    public void utcFromGnssOrWallClock() {
+        Timebase timebase = new Timebase(0, null);
+
+        timebase.setWallClock(1000 * MS, 1600000000000L);
+        assertEquals(1600000000500.0, timebase.toUtc(1500 * MS), 1e-6);
+        timebase.setGnssTime(2000 * MS, 1600000001250L);
+        assertTrue(timebase.hasGnssTime());
+        assertEquals(1600000000250.0, timebase.toUtc(1000 * MS), 1e-6);
+        assertTrue(timebase.report(), timebase.report().contains("wall clock - gnss -250.000 ms"));
+    }
+}
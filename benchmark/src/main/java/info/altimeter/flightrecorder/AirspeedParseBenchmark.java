@@ -0,0 +1,87 @@
+package info.altimeter.flightrecorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of airspeed frames as they come out of a USB transfer, per frame
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AirspeedParseBenchmark {
+    static final int FRAMES = 64;
+
+    byte[] transfer;
+    AirspeedFrameParser parser;
+    Blackhole blackhole;
+
+    @Setup
+    public void setup(final Blackhole blackhole) {
+        Random random = new Random(1);
+        StringBuilder text = new StringBuilder();
+        int i;
+
+        for (i = 0; i < FRAMES; i += 1) {
+            int diff = 8192 + random.nextInt(400) - 200;
+            int temp = 600 + random.nextInt(8);
+            text.append(String.format(Locale.US, "*%04X%04X\r\n", diff, temp << 5));
+        }
+        transfer = text.toString().getBytes(StandardCharsets.US_ASCII);
+
+        this.blackhole = blackhole;
+        parser = new AirspeedFrameParser(new AirspeedFrameParser.FrameListener() {
+            @Override
+            public void onFrame(int stat, int diff, int temp) {
+                blackhole.consume(diff + temp);
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int parser() {
+        return parser.parse(transfer, 0, transfer.length);
+    }
+
+    /**
+     * Line-based decoding through a BufferedReader, as the reader thread did before
+     */
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public void readLine() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(transfer), StandardCharsets.US_ASCII), 128);
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            if (line.length() != 9 || line.charAt(0) != '*') {
+                continue;
+            }
+            int word = (int) Long.parseLong(line.substring(1), 16);
+            blackhole.consume(((word >>> 16) & 0x3FFF) + ((word & 0xFFFF) >> 5));
+        }
+    }
+}
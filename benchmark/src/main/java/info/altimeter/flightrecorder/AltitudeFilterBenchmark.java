@@ -0,0 +1,66 @@
+package info.altimeter.flightrecorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fusion filter steps at 1 kHz barometer input with a GNSS fix every second,
+ * per input sample; 1 kHz on one core leaves 1 ms per step
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AltitudeFilterBenchmark {
+    static final int SAMPLES = 1000;
+    static final long PERIOD = 1000000L;
+
+    final double[] baro = new double[SAMPLES];
+    final double[] gnss = new double[SAMPLES];
+    AltitudeFilter filter;
+    long time;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(2);
+        int i;
+
+        for (i = 0; i < SAMPLES; i += 1) {
+            baro[i] = 580 + random.nextGaussian() * 0.5;
+            gnss[i] = 500 + random.nextGaussian() * 3;
+        }
+        filter = new AltitudeFilter();
+        time = 0;
+    }
+
+    /**
+     * One second of input
+     */
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public double second() {
+        int i;
+
+        for (i = 0; i < SAMPLES; i += 1) {
+            time += PERIOD;
+            filter.addBaro(time, baro[i]);
+        }
+        filter.addGnss(time, gnss[(int) (time / 1000000000L % SAMPLES)], 3);
+        filter.addGroundSpeed(time, 20, 0.5);
+        return filter.getAltitude();
+    }
+}
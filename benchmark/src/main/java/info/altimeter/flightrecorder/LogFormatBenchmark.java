@@ -0,0 +1,85 @@
+package info.altimeter.flightrecorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formatting of a single log line: the LogFormatter path against the
+ * String.format calls it replaced
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LogFormatBenchmark {
+    LogFormatter line = new LogFormatter();
+    long[] fix = new long[LogLayout.LOCATION.getFieldCount()];
+    long time;
+    double lon = -122.374561;
+    double lat = 37.619003;
+    float accuracy = 3.9f;
+    double altitude = 4.6;
+    float verticalAccuracy = 6.0f;
+    float speed = 41.25f;
+    float speedAccuracy = 0.35f;
+
+    @Setup
+    public void setup() {
+        time = 3 * 3600000000000L + 25 * 60000000000L + 7123456789L;
+        fix[0] = LogLayout.real(lon);
+        fix[1] = LogLayout.real(lat);
+        fix[2] = LogLayout.real(accuracy);
+        fix[3] = LogLayout.real(altitude);
+        fix[4] = LogLayout.real(verticalAccuracy);
+        fix[5] = LogLayout.real(speed);
+        fix[6] = LogLayout.real(speedAccuracy);
+    }
+
+    static String logTime(long t) {
+        long ms = t / 1000000;
+        long s = ms / 1000;
+        long m = s / 60;
+        long h = m / 60;
+        return String.format(Locale.US, "%4d:%02d:%02d.%03d", h, m % 60, s % 60, ms % 1000);
+    }
+
+    @Benchmark
+    public String time_stringFormat() {
+        return logTime(time);
+    }
+
+    @Benchmark
+    public int time_formatter() {
+        line.reset();
+        line.appendTime(time);
+        return line.length();
+    }
+
+    @Benchmark
+    public byte[] location_stringFormat() {
+        String s = logTime(time) + String.format(Locale.US,
+                " %+11.6f %+11.6f %11.6f %+7.1f %7.3f %7.3f %7.3f\n",
+                lon, lat, accuracy, altitude, verticalAccuracy, speed, speedAccuracy);
+        return s.getBytes();
+    }
+
+    @Benchmark
+    public int location_layout() {
+        line.reset();
+        LogLayout.LOCATION.format(line, time, fix);
+        return line.length();
+    }
+}
@@ -0,0 +1,110 @@
+package info.altimeter.flightrecorder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of getting one pressure sample from the sensor callback into a file.
+ *
+ * The sink's writer thread is not started; the benchmark thread drains the
+ * ring whenever it is half full, so the encoding and write work is measured
+ * on the same thread as put().
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class WriterBenchmark {
+    static final int BATCH = LogSink.DEFAULT_CAPACITY / 2;
+
+    /**
+     * direct: String.format and a FileOutputStream write per sample;
+     * text, binary, container: LogSink with the respective encoder;
+     * mapped: binary through a MappedLogFile;
+     * compressed: text through a CompressedLogStream
+     */
+    @Param({"direct", "text", "binary", "container", "mapped", "compressed"})
+    public String strategy;
+
+    File file;
+    OutputStream stream;
+    LogSink sink;
+    LogSink.Channel channel;
+    long[] sample = new long[1];
+    long time;
+    float pressure;
+    int pending;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        file = File.createTempFile("writer", ".log");
+        stream = strategy.equals("mapped") ? new MappedLogFile(file) : new FileOutputStream(file);
+        time = 1000000000L;
+        pressure = 1013.25f;
+        pending = 0;
+
+        sink = new LogSink(time);
+        if (strategy.equals("compressed")) {
+            stream = new CompressedLogStream(stream, time);
+        }
+        if (strategy.equals("text") || strategy.equals("compressed")) {
+            channel = sink.addChannel(LogLayout.PRESSURE, stream);
+        } else if (strategy.equals("binary") || strategy.equals("mapped")) {
+            channel = sink.addChannel(LogLayout.PRESSURE, stream,
+                    new BinaryLogWriter(time).channel(0, LogLayout.PRESSURE));
+        } else if (strategy.equals("container")) {
+            channel = sink.addContainer(stream).addChannel(LogLayout.PRESSURE);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        sink.close();
+        stream.close();
+        if (channel != null && channel.getDropped() != 0) {
+            throw new IllegalStateException(channel.getDropped() + " samples dropped");
+        }
+        file.delete();
+    }
+
+    @Benchmark
+    public void sample() throws IOException {
+        time += 40000000L;
+        pressure += (time & 0x300000) == 0 ? 0.01f : -0.01f;
+
+        if (channel == null) {
+            String line = LogFormatBenchmark.logTime(time - 1000000000L)
+                    + String.format(Locale.US, " %7.3f\n", pressure);
+            stream.write(line.getBytes());
+            return;
+        }
+
+        sample[0] = LogLayout.real(pressure);
+        channel.put(time, sample);
+        pending += 1;
+        if (pending == BATCH) {
+            sink.drain();
+            pending = 0;
+        }
+    }
+}